@@ -13,15 +13,18 @@ package node2vec; /*************************************************************
  *
  *                 http://www.keithschwarz.com/darts-dice-coins/
  */
+import node2vec.util.FastRandom;
+
 import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
 
 public final class AliasMethod {
-    /* The random number generator used to sample from the distribution. */
-    private final Random random;
-
-    /* The probability and alias tables. */
+    /* The alias table, and the probability table scaled to the range of a
+     * signed int: outcome i is kept when a uniform int falls below
+     * threshold[i].  Columns that are never replaced are their own alias.
+     */
     private final int[] alias;
-    private final double[] probability;
+    private final int[] threshold;
 
     /**
      * Constructs a new node2vec.AliasMethod to sample from a discrete distribution and
@@ -34,35 +37,16 @@ public final class AliasMethod {
      * @param probabilities The list of probabilities.
      */
     public AliasMethod(List<Double> probabilities) {
-        this(probabilities, new Random());
-    }
-
-    /**
-     * Constructs a new node2vec.AliasMethod to sample from a discrete distribution and
-     * hand back outcomes based on the probability distribution.
-     * <p>
-     * Given as input a list of probabilities corresponding to outcomes 0, 1,
-     * ..., n - 1, along with the random number generator that should be used
-     * as the underlying generator, this constructor creates the probability
-     * and alias tables needed to efficiently sample from this distribution.
-     *
-     * @param probabilities The list of probabilities.
-     * @param random The random number generator
-     */
-    public AliasMethod(List<Double> probabilities, Random random) {
         /* Begin by doing basic structural checks on the inputs. */
-        if (probabilities == null || random == null)
+        if (probabilities == null)
             throw new NullPointerException();
         if (probabilities.size() == 0)
             throw new IllegalArgumentException("Probability vector must be nonempty.");
 
         /* Allocate space for the probability and alias tables. */
-        probability = new double[probabilities.size()];
+        double[] probability = new double[probabilities.size()];
         alias = new int[probabilities.size()];
 
-        /* Store the underlying generator. */
-        this.random = random;
-
         /* Compute the average probability and cache it for later use. */
         final double average = 1.0 / probabilities.size();
 
@@ -127,21 +111,71 @@ public final class AliasMethod {
             probability[small.removeLast()] = 1.0;
         while (!large.isEmpty())
             probability[large.removeLast()] = 1.0;
+
+        /* Convert the probabilities into integer thresholds, so that a
+         * sample needs a single comparison against random bits.  A column
+         * with probability 1.0 aliases itself, which makes the coin toss
+         * irrelevant there.
+         */
+        threshold = new int[probability.length];
+        for (int i = 0; i < probability.length; ++i) {
+            if (probability[i] >= 1.0) {
+                threshold[i] = Integer.MAX_VALUE;
+                alias[i] = i;
+            } else {
+                threshold[i] = (int) ((long) (probability[i] * 0x1p32) + Integer.MIN_VALUE);
+            }
+        }
     }
 
     /**
-     * Samples a value from the underlying distribution.
+     * Samples a value from the underlying distribution, using the generator
+     * of the calling thread.
      *
      * @return A random value sampled from the underlying distribution.
      */
     public int next() {
-        /* Generate a fair die roll to determine which column to inspect. */
-        int column = random.nextInt(probability.length);
+        return sample(ThreadLocalRandom.current().nextLong());
+    }
+
+    /**
+     * Samples a value from the underlying distribution.
+     *
+     * @param random The generator to draw from.
+     * @return A random value sampled from the underlying distribution.
+     */
+    public int next(FastRandom random) {
+        return sample(random.nextLong());
+    }
+
+    /**
+     * Fills a range of an array with independent samples from the
+     * underlying distribution.
+     *
+     * @param random The generator to draw from.
+     * @param samples The array that receives the samples.
+     * @param from The first index to fill.
+     * @param to The index after the last one to fill.
+     */
+    public void next(FastRandom random, int[] samples, int from, int to) {
+        for (int i = from; i < to; ++i)
+            samples[i] = sample(random.nextLong());
+    }
 
-        /* Generate a biased coin toss to determine which option to pick. */
-        boolean coinToss = random.nextDouble() < probability[column];
+    /**
+     * @return The number of outcomes of the distribution.
+     */
+    public int size() {
+        return alias.length;
+    }
+
+    private int sample(long bits) {
+        /* The high half of the bits rolls the fair die that picks the
+         * column, the low half tosses the biased coin.
+         */
+        int column = (int) (((bits >>> 32) * alias.length) >>> 32);
 
         /* Based on the outcome, return either the column or its alias. */
-        return coinToss? column : alias[column];
+        return (int) bits < threshold[column] ? column : alias[column];
     }
 }
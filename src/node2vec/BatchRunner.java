@@ -0,0 +1,193 @@
+package node2vec;
+
+import net.sourceforge.argparse4j.inf.ArgumentParser;
+import net.sourceforge.argparse4j.inf.ArgumentParserException;
+import net.sourceforge.argparse4j.inf.Namespace;
+import word2vec.Model;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs many independent embedding jobs in one JVM, so that small graphs do
+ * not each pay for startup and JIT warm-up.
+ * <p>
+ * Every non-blank line of the manifest that does not start with '#' is one
+ * job, given as the options of a single run, e.g.
+ * "--input a.edgelist --output a.emb --p 0.5". Options a line leaves out are
+ * taken from the batch invocation. Jobs run concurrently on a bounded pool;
+ * each reserves its estimated memory from a shared {@link MemoryBudget} and
+ * fails instead of running if the estimate exceeds the per-job cap. A failed
+ * job does not stop the others.
+ * <p>
+ * A job only walks, trains and writes the text output; a job whose options ask
+ * for more, e.g. --targets or --quantize, fails instead of ignoring them.
+ */
+public class BatchRunner {
+
+    /* options of a single run that a batch job does not implement */
+    private static final String[] UNSUPPORTED = {"targets", "quantize", "pqSubspaces", "mmapModel", "foldIn",
+            "loadModel", "psServer", "psConnect", "sweep", "batch"};
+
+    private final Namespace base;
+    private final String manifest;
+    private final int parallelJobs;
+    private final MemoryBudget budget;
+    private final long jobCap;
+
+    /**
+     * @param base the options that jobs fall back to
+     * @param manifest path of the job list
+     * @param parallelJobs the maximum number of jobs that run at once
+     * @param budget the memory that running jobs reserve from
+     * @param jobCap the largest estimate in bytes a single job may have, Long.MAX_VALUE for none
+     */
+    public BatchRunner(Namespace base, String manifest, int parallelJobs, MemoryBudget budget, long jobCap) {
+        if (parallelJobs <= 0)
+            throw new IllegalArgumentException("Number of parallel jobs must be positive.");
+        this.base = base;
+        this.manifest = manifest;
+        this.parallelJobs = parallelJobs;
+        this.budget = budget;
+        this.jobCap = jobCap;
+    }
+
+    /**
+     * parse the manifest into the options of every job
+     * @return the jobs, in manifest order
+     * @throws IOException manifest not found or a line is not a valid set of options
+     */
+    List<Namespace> readJobs() throws IOException {
+        ArgumentParser parser = Main.buildParser();
+        parser.setDefaults(base.getAttrs());
+        // so that a job line that names another manifest is told apart from this one
+        parser.setDefault("batch", null);
+        List<Namespace> jobs = new ArrayList<>();
+        int lineNumber = 0;
+        for (String line : Files.readAllLines(Paths.get(manifest), StandardCharsets.UTF_8)) {
+            lineNumber++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) continue;
+            try {
+                jobs.add(parser.parseArgs(line.split("\\s+")));
+            } catch (ArgumentParserException e) {
+                throw new IOException(manifest + ":" + lineNumber + ": " + e.getMessage(), e);
+            }
+        }
+        return jobs;
+    }
+
+    /**
+     * run every job of the manifest and report the outcome of each
+     * @throws IOException the manifest cannot be read, or some jobs failed
+     */
+    public void run() throws IOException {
+        List<Namespace> jobs = readJobs();
+        System.out.println("Running " + jobs.size() + " jobs, " + parallelJobs
+                + " at a time, within " + budget.getCapacity() / (1 << 20) + " MB");
+
+        long begin = System.nanoTime();
+        int failed = 0;
+        ExecutorService pool = Executors.newFixedThreadPool(parallelJobs);
+        List<Future<String>> results = new ArrayList<>();
+        try {
+            for (Namespace job : jobs) {
+                results.add(pool.submit(() -> runJob(job)));
+            }
+            for (int i = 0; i < results.size(); i++) {
+                try {
+                    System.out.println(results.get(i).get());
+                } catch (ExecutionException e) {
+                    failed++;
+                    System.out.println(jobs.get(i).getString("output") + ": failed, " + e.getCause());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Batch interrupted", e);
+        } finally {
+            pool.shutdownNow();
+        }
+        System.out.println(String.format("Batch done in %.3fs, %d of %d jobs failed",
+                (System.nanoTime() - begin) / 1e9, failed, jobs.size()));
+        if (failed > 0) throw new IOException(failed + " of " + jobs.size() + " batch jobs failed");
+    }
+
+    private String runJob(Namespace job) throws Exception {
+        checkSupported(job);
+        File input = new File(job.getString("input"));
+        EdgeFormat format = EdgeFormat.parse(job.getString("inputFormat"));
+        // reserve for the load from the file size until the graph can be measured
+        long loadReservation = budget.acquire(checkCap(job, estimateLoadBytes(input.length(), format)));
+        Graph graph;
+        long begin = System.nanoTime();
+        try {
+            graph = Graph.firstOrder(input.getPath(), format, NodeOrder.parse(job.getString("nodeOrder")),
+                    job.getBoolean("directed"), job.getBoolean("stringIds"));
+        } finally {
+            budget.release(loadReservation);
+        }
+        long loaded = System.nanoTime();
+
+        long reservation = budget.acquire(checkCap(job, Sweep.estimateBytes(graph, job)));
+        try {
+            Graph walker = graph.withParameters(job.getDouble("p"), job.getDouble("q"));
+            int[] nodes = new int[graph.numNodes()];
+            for (int node = 0; node < nodes.length; node++) nodes[node] = node;
+            VisitCounter visits = new VisitCounter(graph.numNodes());
+            Long seed = job.getLong("seed");
+            List<int[]> walks = walker.simulateWalksFrom(nodes, job.getInt("numWalks"), job.getInt("walkLength"),
+                    job.getInt("workers"), visits, seed != null ? seed : System.nanoTime());
+            long walked = System.nanoTime();
+
+            Model model = Main.newModel(job);
+            model.learnWalks(walks, visits.total());
+            model.storeModel(new File(job.getString("output")), graph.getDictionary()::externalId);
+            long end = System.nanoTime();
+            return String.format("%s: %d nodes, reserved %.1f MB, load %.3fs, walks %.3fs, training %.3fs",
+                    job.getString("output"), graph.numNodes(), reservation / (double) (1 << 20),
+                    (loaded - begin) / 1e9, (walked - loaded) / 1e9, (end - walked) / 1e9);
+        } finally {
+            budget.release(reservation);
+        }
+    }
+
+    /**
+     * @throws IllegalArgumentException the job sets an option that runJob would ignore,
+     * or options that conflict in any run
+     */
+    static void checkSupported(Namespace job) {
+        Main.checkOptions(job);
+        for (String option : UNSUPPORTED) {
+            if (job.get(option) != null)
+                throw new IllegalArgumentException("--" + option + " is not supported in batch jobs");
+        }
+        if (job.getBoolean("saveModel"))
+            throw new IllegalArgumentException("--saveModel is not supported in batch jobs");
+    }
+
+    private long checkCap(Namespace job, long bytes) throws IOException {
+        if (bytes > jobCap)
+            throw new IOException(job.getString("input") + " needs about " + (bytes >> 20)
+                    + " MB, more than the per-job cap of " + (jobCap >> 20) + " MB");
+        return bytes;
+    }
+
+    /**
+     * rough memory needed to load an edge list of the given size: the edge buffer
+     * in both directions, the adjacency and the node dictionary
+     */
+    static long estimateLoadBytes(long fileBytes, EdgeFormat format) {
+        long edges = fileBytes / (format.isBinary() ? format.recordBytes() : 8);
+        return edges * 2 * (Integer.BYTES * 3 + Double.BYTES * 2) + edges * 2 * (Long.BYTES + Integer.BYTES);
+    }
+}
@@ -0,0 +1,52 @@
+package node2vec;
+
+/**
+ * Layouts of the input edge list.
+ * <p>
+ * TEXT is one "src dst [weight]" line per edge, optionally gzip-compressed.
+ * The binary layouts are headerless arrays of fixed-width little-endian
+ * records: src and dst as int32 or int64, followed by a float32 weight in the
+ * variants ending in F.
+ */
+public enum EdgeFormat {
+    TEXT(0, false),
+    INT32(Integer.BYTES, false),
+    INT32F(Integer.BYTES, true),
+    INT64(Long.BYTES, false),
+    INT64F(Long.BYTES, true);
+
+    private final int idBytes;
+    private final boolean weighted;
+
+    EdgeFormat(int idBytes, boolean weighted) {
+        this.idBytes = idBytes;
+        this.weighted = weighted;
+    }
+
+    /**
+     * @param name the format name in any case, e.g. "int32f"
+     * @return the format
+     */
+    public static EdgeFormat parse(String name) {
+        return valueOf(name.toUpperCase());
+    }
+
+    public boolean isBinary() {
+        return this != TEXT;
+    }
+
+    public int idBytes() {
+        return idBytes;
+    }
+
+    public boolean isWeighted() {
+        return weighted;
+    }
+
+    /**
+     * @return the size of one binary record in bytes, 0 for text
+     */
+    public int recordBytes() {
+        return isBinary() ? 2 * idBytes + (weighted ? Float.BYTES : 0) : 0;
+    }
+}
@@ -1,9 +1,23 @@
 package node2vec;
 
+import node2vec.util.FastRandom;
+
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
-import java.io.FileReader;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.zip.GZIPInputStream;
 
 /**
  * Created by freemso on 17-3-14.
@@ -12,307 +26,738 @@ public class Graph {
 
     private static final double DEFAULT_WEIGHT = 1;
 
-    private Set<Node> nodeSet = new HashSet<>();
-    private Set<Edge> edgeSet = new HashSet<>();
+    /* binary input is mapped in windows of at most this many bytes */
+    private static final int MAX_WINDOW_BYTES = 1 << 30;
+    /* binary records are decoded in batches of this many ints */
+    private static final int DECODE_BATCH = 3 << 12;
+
+    private final NodeDictionary dictionary;
+
+    private final EdgeFormat format;
 
     private boolean directed;
 
     private double p, q;
 
-    private Map<Graph.Node, AliasMethod> aliasNodes = new HashMap<>();
-    private Map<Graph.Edge, AliasMethod> aliasEdges = new HashMap<>();
+    // adjacency in compressed sparse row form:
+    // the out-neighbors of node n are neighbors[offsets[n]..offsets[n+1]),
+    // sorted by internal id, with the matching edge weights in weights[]
+    private int[] offsets;
+    private int[] neighbors;
+    private double[] weights;
+
+    // all edges have the same weight, so every step is a uniform choice among the neighbors
+    private boolean uniform;
+
+    private AliasMethod[] aliasNodes; // null when uniform
+    private AliasMethod[] aliasEdges; // indexed like neighbors[], null when p = q = 1
+    // build an edge table the first time a walk crosses its edge instead of all of them up front
+    private boolean edgeTablesOnDemand;
 
     public Graph(String file, boolean directed, double p, double q) throws IOException {
+        this(file, directed, p, q, false);
+    }
+
+    /**
+     * @param file path of the input edge list
+     * @param directed whether the edges are directed
+     * @param p return hyperparameter
+     * @param q in-out hyperparameter
+     * @param stringIds treat node ids as opaque strings instead of 64-bit integers
+     * @throws IOException file not found or file format not fit
+     */
+    public Graph(String file, boolean directed, double p, double q, boolean stringIds) throws IOException {
+        this(file, EdgeFormat.TEXT, directed, p, q, stringIds);
+    }
+
+    /**
+     * @param file path of the input edge list
+     * @param format layout of the input edge list
+     * @param directed whether the edges are directed
+     * @param p return hyperparameter
+     * @param q in-out hyperparameter
+     * @param stringIds treat node ids as opaque strings instead of 64-bit integers, text input only
+     * @throws IOException file not found or file format not fit
+     */
+    public Graph(String file, EdgeFormat format, boolean directed, double p, double q,
+                 boolean stringIds) throws IOException {
+        this(file, format, NodeOrder.INPUT, directed, p, q, stringIds);
+    }
+
+    /**
+     * @param file path of the input edge list
+     * @param format layout of the input edge list
+     * @param order how the nodes are numbered internally
+     * @param directed whether the edges are directed
+     * @param p return hyperparameter
+     * @param q in-out hyperparameter
+     * @param stringIds treat node ids as opaque strings instead of 64-bit integers, text input only
+     * @throws IOException file not found or file format not fit
+     */
+    public Graph(String file, EdgeFormat format, NodeOrder order, boolean directed, double p, double q,
+                 boolean stringIds) throws IOException {
+        this(file, format, order, directed, p, q, stringIds, true);
+    }
+
+    private Graph(String file, EdgeFormat format, NodeOrder order, boolean directed, double p, double q,
+                  boolean stringIds, boolean secondOrder) throws IOException {
+        this.format = format;
         this.directed = directed;
         this.p = p;
         this.q = q;
+        this.dictionary = new NodeDictionary(stringIds);
+
+        loadGraphFrom(file, order);
+        preprocessNodes();
+        if (secondOrder) preprocessEdges();
+    }
+
+    /**
+     * a graph that shares the structure and the first-order tables of another one,
+     * with its own p/q-dependent edge tables
+     */
+    private Graph(Graph base, double p, double q, boolean edgeTablesOnDemand) {
+        this.dictionary = base.dictionary;
+        this.format = base.format;
+        this.directed = base.directed;
+        this.offsets = base.offsets;
+        this.neighbors = base.neighbors;
+        this.weights = base.weights;
+        this.uniform = base.uniform;
+        this.aliasNodes = base.aliasNodes;
+        this.p = p;
+        this.q = q;
+        this.edgeTablesOnDemand = edgeTablesOnDemand;
+
+        preprocessEdges();
+    }
+
+    /**
+     * a graph with the edges of base plus the edges read from a file
+     */
+    private Graph(Graph base, String file) throws IOException {
+        this.dictionary = new NodeDictionary(base.dictionary);
+        this.format = base.format;
+        this.directed = base.directed;
+        this.p = base.p;
+        this.q = base.q;
+        // walks on the grown graph start from the new nodes, which reach few of the edges
+        this.edgeTablesOnDemand = true;
+
+        EdgeBuffer edges = new EdgeBuffer();
+        for (int src = 0; src < base.numNodes(); src++) {
+            for (int e = base.offsets[src]; e < base.offsets[src + 1]; e++) {
+                edges.add(src, base.neighbors[e], base.weights[e]);
+            }
+        }
+        readEdges(file, edges);
+        buildAdjacency(edges);
+        preprocessNodes();
+        if (!Double.isNaN(p)) preprocessEdges();
+    }
+
+    /**
+     * load a graph without the p/q-dependent edge tables,
+     * to derive graphs for several p and q with withParameters
+     * @param file path of the input edge list
+     * @param directed whether the edges are directed
+     * @param stringIds treat node ids as opaque strings instead of 64-bit integers
+     * @return the graph, which cannot walk by itself
+     * @throws IOException file not found or file format not fit
+     */
+    public static Graph firstOrder(String file, boolean directed, boolean stringIds) throws IOException {
+        return firstOrder(file, EdgeFormat.TEXT, NodeOrder.INPUT, directed, stringIds);
+    }
+
+    /**
+     * load a graph without the p/q-dependent edge tables from an edge list in the given layout
+     * @param file path of the input edge list
+     * @param format layout of the input edge list
+     * @param order how the nodes are numbered internally
+     * @param directed whether the edges are directed
+     * @param stringIds treat node ids as opaque strings instead of 64-bit integers, text input only
+     * @return the graph, which cannot walk by itself
+     * @throws IOException file not found or file format not fit
+     */
+    public static Graph firstOrder(String file, EdgeFormat format, NodeOrder order, boolean directed,
+                                   boolean stringIds) throws IOException {
+        return new Graph(file, format, order, directed, Double.NaN, Double.NaN, stringIds, false);
+    }
+
+    /**
+     * derive a graph with other return and in-out hyperparameters
+     * the edge list, node dictionary and first-order tables are shared, only
+     * the edge tables are rebuilt
+     * @param p return hyperparameter
+     * @param q in-out hyperparameter
+     * @return the derived graph
+     */
+    public Graph withParameters(double p, double q) {
+        return withParameters(p, q, false);
+    }
+
+    /**
+     * derive a graph with other return and in-out hyperparameters
+     * @param p return hyperparameter
+     * @param q in-out hyperparameter
+     * @param edgeTablesOnDemand build an edge table when a walk first crosses its edge, so that
+     *                           walks that stay in a small part of the graph only pay for that part
+     * @return the derived graph
+     */
+    public Graph withParameters(double p, double q, boolean edgeTablesOnDemand) {
+        return new Graph(this, p, q, edgeTablesOnDemand);
+    }
 
-        loadGraphFrom(file);
-        preprocess();
+    /**
+     * add the edges of a file, for nodes that arrive after a model was trained
+     * known nodes keep their internal ids and new nodes get the next ones, so
+     * the ids of the trained model stay valid
+     * this costs a pass over the edges of both graphs to rebuild the adjacency and the
+     * first-order tables; the edge tables of the new graph are built on demand
+     * @param file path of the edge list to add, in the layout of this graph's input
+     * @return a new graph with the edges of both, this graph is not changed
+     * @throws IOException file not found or file format not fit
+     */
+    public Graph addEdges(String file) throws IOException {
+        return new Graph(this, file);
     }
 
     /**
      * load graph data from file
-     * input format: node1_id_int node2_id_int <weight_float, optional>
+     * text format: node1_id node2_id <weight_float, optional>, plain or gzip-compressed
+     * binary formats: see EdgeFormat
+     * node ids are mapped to dense internal ids through the node dictionary,
+     * numbered in the given order
+     * @param file path of the input file
+     * @param order how the nodes are numbered internally
+     * @throws IOException file not found or file format not fit
+     */
+    private void loadGraphFrom(String file, NodeOrder order) throws IOException {
+        EdgeBuffer edges = new EdgeBuffer();
+        readEdges(file, edges);
+        buildAdjacency(edges);
+        if (order == NodeOrder.INPUT) return;
+        long begin = System.nanoTime();
+        int[] newIds = order.permutation(offsets, neighbors);
+        dictionary.renumber(newIds);
+        for (int i = 0; i < edges.size; i++) {
+            edges.src[i] = newIds[edges.src[i]];
+            edges.dst[i] = newIds[edges.dst[i]];
+        }
+        buildAdjacency(edges);
+        System.out.println(String.format("Renumbered %d nodes in %s order in %.3fs, mean id gap of an edge %.0f",
+                newIds.length, order, (System.nanoTime() - begin) / 1e9, meanEdgeGap()));
+    }
+
+    /**
+     * the mean distance between the ids of the two ends of an edge, a proxy for
+     * how far apart in memory the data of consecutive walk steps is
+     */
+    private double meanEdgeGap() {
+        long gap = 0;
+        for (int node = 0; node < dictionary.size(); node++) {
+            for (int e = offsets[node]; e < offsets[node + 1]; e++) gap += Math.abs(neighbors[e] - node);
+        }
+        return neighbors.length == 0 ? 0 : gap / (double) neighbors.length;
+    }
+
+    /**
+     * read the edges of a file into a buffer, interning new node ids
      * @param file path of the input file
+     * @param edges receives the edges, in both directions if undirected
      * @throws IOException file not found or file format not fit
      */
-    private void loadGraphFrom(String file) throws IOException {
+    private void readEdges(String file, EdgeBuffer edges) throws IOException {
+        if (format.isBinary()) {
+            readBinaryEdges(file, edges);
+            return;
+        }
         // read graph info from file
-        FileReader fr = new FileReader(file);
-        BufferedReader br = new BufferedReader(fr);
-        String lineTxt;
-        while ((lineTxt = br.readLine()) != null) {
-            // parse the line text to get the edge info
-            String[] strList = lineTxt.split(" ");
-            int node1ID = Integer.parseInt(strList[0]);
-            int node2ID = Integer.parseInt(strList[1]);
-            // add the nodes to the graph
-            Node node1 = this.addNode(node1ID);
-            Node node2 = this.addNode(node2ID);
-            // add the edge to the graph
-            if (strList.length > 2) {
-                double weight = Double.parseDouble((strList[2]));
-                this.addEdge(node1, node2, weight);
-            } else {
-                this.addEdge(node1, node2, DEFAULT_WEIGHT);
+        try (BufferedReader br = new BufferedReader(new InputStreamReader(openText(file), StandardCharsets.UTF_8))) {
+            String lineTxt;
+            while ((lineTxt = br.readLine()) != null) {
+                lineTxt = lineTxt.trim();
+                if (lineTxt.isEmpty()) continue;
+                // parse the line text to get the edge info
+                String[] strList = lineTxt.split("\\s+");
+                int node1 = dictionary.intern(strList[0]);
+                int node2 = dictionary.intern(strList[1]);
+                double weight = strList.length > 2 ? Double.parseDouble(strList[2]) : DEFAULT_WEIGHT;
+                addEdge(node1, node2, weight, edges);
             }
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            throw new IOException("Malformed edge list " + file + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * open a text input, decompressing it on the fly if it starts with the gzip magic
+     * @param file path of the input file
+     * @return the stream of the text
+     * @throws IOException file not found, or compressed in an unsupported way
+     */
+    private static InputStream openText(String file) throws IOException {
+        InputStream in = new BufferedInputStream(new FileInputStream(file), 1 << 16);
+        try {
+            in.mark(4);
+            int b0 = in.read(), b1 = in.read(), b2 = in.read(), b3 = in.read();
+            in.reset();
+            if (b0 == 0x1f && b1 == 0x8b) return new GZIPInputStream(in, 1 << 16);
+            if (b0 == 0x28 && b1 == 0xb5 && b2 == 0x2f && b3 == 0xfd)
+                throw new IOException("zstd input is not supported, stream it instead: zstd -dc "
+                        + file + " | java -jar node2vec.jar --input /dev/stdin ...");
+            return in;
+        } catch (IOException e) {
+            in.close();
+            throw e;
         }
     }
 
     /**
-     * pre-processing of transition probabilities for guiding the random walks
+     * read a binary edge list, mapping the file window by window and decoding the records in batches
+     * @param file path of the input file
+     * @param edges receives the edges, in both directions if undirected
+     * @throws IOException file not found or file format not fit
      */
-    private void preprocess() {
-        for (Node node : nodeSet) {
-            List<Node> neighbors = this.sortedNeighborList(node);
+    private void readBinaryEdges(String file, EdgeBuffer edges) throws IOException {
+        if (dictionary.hasStringIds())
+            throw new IOException("Binary edge lists have integer node ids, string ids do not apply.");
+        int record = format.recordBytes();
+        try (FileChannel channel = FileChannel.open(Paths.get(file), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size % record != 0)
+                throw new IOException("Malformed edge list " + file + ": " + size
+                        + " bytes is not a whole number of " + record + "-byte " + format + " records");
+            try {
+                edges.ensureCapacity(Math.toIntExact(edges.size + (directed ? 1 : 2) * (size / record)));
+            } catch (ArithmeticException e) {
+                throw new IOException("Too many edges in " + file, e);
+            }
+            long window = MAX_WINDOW_BYTES / record * (long) record;
+            for (long position = 0; position < size; position += window) {
+                ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                        Math.min(window, size - position)).order(ByteOrder.LITTLE_ENDIAN);
+                if (format.idBytes() == Integer.BYTES) decodeInt32(buffer.asIntBuffer(), edges);
+                else decodeInt64(buffer, edges);
+            }
+        }
+    }
+
+    private void decodeInt32(IntBuffer records, EdgeBuffer edges) {
+        int stride = format.isWeighted() ? 3 : 2;
+        int[] batch = new int[DECODE_BATCH];
+        while (records.hasRemaining()) {
+            int length = Math.min(batch.length, records.remaining());
+            records.get(batch, 0, length);
+            for (int k = 0; k < length; k += stride) {
+                double weight = stride == 3 ? Float.intBitsToFloat(batch[k + 2]) : DEFAULT_WEIGHT;
+                addEdge(dictionary.internLong(batch[k]), dictionary.internLong(batch[k + 1]), weight, edges);
+            }
+        }
+    }
+
+    private void decodeInt64(ByteBuffer records, EdgeBuffer edges) {
+        int record = format.recordBytes();
+        for (int position = 0; position < records.limit(); position += record) {
+            double weight = format.isWeighted() ? records.getFloat(position + 2 * Long.BYTES) : DEFAULT_WEIGHT;
+            addEdge(dictionary.internLong(records.getLong(position)),
+                    dictionary.internLong(records.getLong(position + Long.BYTES)), weight, edges);
+        }
+    }
+
+    private void addEdge(int node1, int node2, double weight, EdgeBuffer edges) {
+        edges.add(node1, node2, weight);
+        if (!directed) edges.add(node2, node1, weight);
+    }
+
+    /**
+     * build the sorted adjacency arrays from the raw edge buffer
+     * if an edge appears more than once, the last weight read wins
+     * @param edges the edges in input order
+     */
+    private void buildAdjacency(EdgeBuffer edges) {
+        int numNodes = dictionary.size();
+        int[] start = new int[numNodes + 1];
+        for (int i = 0; i < edges.size; i++) start[edges.src[i] + 1]++;
+        for (int n = 0; n < numNodes; n++) start[n + 1] += start[n];
+
+        // bucket the edges by source, keeping the input order inside a bucket
+        int[] fill = Arrays.copyOf(start, numNodes);
+        int[] order = new int[edges.size];
+        for (int i = 0; i < edges.size; i++) order[fill[edges.src[i]]++] = i;
+
+        offsets = new int[numNodes + 1];
+        neighbors = new int[edges.size];
+        weights = new double[edges.size];
+        int out = 0;
+        long[] keys = new long[0];
+        for (int n = 0; n < numNodes; n++) {
+            offsets[n] = out;
+            int degree = start[n + 1] - start[n];
+            if (keys.length < degree) keys = new long[degree];
+            // sort by (dst, input position) so that duplicates are adjacent, last one wins
+            for (int k = 0; k < degree; k++) {
+                int e = order[start[n] + k];
+                keys[k] = ((long) edges.dst[e] << 32) | e;
+            }
+            Arrays.sort(keys, 0, degree);
+            for (int k = 0; k < degree; k++) {
+                int e = (int) keys[k];
+                int dst = (int) (keys[k] >>> 32);
+                if (out > offsets[n] && neighbors[out - 1] == dst) {
+                    weights[out - 1] = edges.weight[e];
+                } else {
+                    neighbors[out] = dst;
+                    weights[out] = edges.weight[e];
+                    out++;
+                }
+            }
+        }
+        offsets[numNodes] = out;
+        neighbors = Arrays.copyOf(neighbors, out);
+        weights = Arrays.copyOf(weights, out);
+    }
+
+    /**
+     * pre-processing of the first-order transition probabilities, used for the first step of a walk
+     */
+    private void preprocessNodes() {
+        int numNodes = dictionary.size();
+        uniform = true;
+        for (double weight : weights) {
+            if (weight != weights[0]) {
+                uniform = false;
+                break;
+            }
+        }
+        if (uniform) return;
+        aliasNodes = new AliasMethod[numNodes];
+        for (int node = 0; node < numNodes; node++) {
+            if (degree(node) == 0) continue;
             List<Double> probs = new ArrayList<>();
             double weightSum = 0;
-            for (Node neighbor : neighbors) {
-                // assert has an edge
-                double weight = this.getEdge(node, neighbor).weight;
-                probs.add(weight);
-                weightSum += weight;
+            for (int e = offsets[node]; e < offsets[node + 1]; e++) {
+                probs.add(weights[e]);
+                weightSum += weights[e];
             }
-            double norm = weightSum;
-            probs.forEach(aDouble -> aDouble /= norm);
-            aliasNodes.put(node, new AliasMethod(probs));
+            aliasNodes[node] = new AliasMethod(normalize(probs, weightSum));
         }
-        for (Edge edge :
-                edgeSet) {
-            aliasEdges.put(edge, this.computeAliasEdge(edge));
+    }
+
+    /**
+     * pre-processing of the p/q-dependent transition probabilities for guiding the random walks
+     * with edgeTablesOnDemand only the slots are allocated, and walk fills them
+     */
+    private void preprocessEdges() {
+        // with p = q = 1 the second-order distribution is the first-order one
+        if (isFirstOrder(p, q)) return;
+        int numNodes = dictionary.size();
+        aliasEdges = new AliasMethod[neighbors.length];
+        if (edgeTablesOnDemand) return;
+        for (int src = 0; src < numNodes; src++) {
+            for (int e = offsets[src]; e < offsets[src + 1]; e++) {
+                if (degree(neighbors[e]) > 0) aliasEdges[e] = this.computeAliasEdge(src, neighbors[e]);
+            }
         }
     }
 
     /**
      * to compute the alias method for an edge
-     * @param edge the edge to compute
+     * @param src source node of the edge
+     * @param dst destination node of the edge
      * @return the node2vec.AliasMethod object that store distribution information
      */
-    private AliasMethod computeAliasEdge(Edge edge) {
-        List<Node> neighbors = this.sortedNeighborList(edge.dst);
+    private AliasMethod computeAliasEdge(int src, int dst) {
         List<Double> probs = new ArrayList<>();
         double weightSum = 0;
-        for (Node neighbor :
-                neighbors) {
+        for (int e = offsets[dst]; e < offsets[dst + 1]; e++) {
+            int neighbor = neighbors[e];
             double weight;
-            if (neighbor == edge.src)
-                weight = edge.weight / this.p;
-            else if (this.hasEdge(neighbor, edge.src))
-                weight = edge.weight;
-            else weight = edge.weight / this.q;
+            if (neighbor == src)
+                weight = weights[e] / this.p;
+            else if (this.hasEdge(neighbor, src))
+                weight = weights[e];
+            else weight = weights[e] / this.q;
             weightSum += weight;
             probs.add(weight);
         }
-        double norm = weightSum;
-        probs.forEach(aDouble -> aDouble /= norm);
-        return new AliasMethod(probs);
+        return new AliasMethod(normalize(probs, weightSum));
+    }
+
+    private static List<Double> normalize(List<Double> probs, double norm) {
+        probs.replaceAll(weight -> weight / norm);
+        return probs;
     }
 
     /**
      * random walk in the graph starting from a node
      * @param walkLength the steps of this walk
-     * @param startNode the start node of this walk
-     * @return the path that we pass, expressed as a Node List
+     * @param startNode the internal id of the start node of this walk
+     * @param random the generator of this walk
+     * @return the internal ids of the nodes that we pass, shorter than walkLength at a dead end
      */
-    private List<Node> walk(int walkLength, Node startNode) {
-        List<Node> path = new ArrayList<>();
-        path.add(startNode);
-
-        while (path.size() < walkLength) {
-            Node current = path.get(path.size()-1); // the last node on the path
-            List<Node> neighbors = this.sortedNeighborList(current);
-            if (neighbors.size() > 0) {
-                if (path.size() == 1) {
-                    int nextIndex = aliasNodes.get(current).next();
-                    path.add(neighbors.get(nextIndex));
-                } else {
-                    Node prev = path.get(path.size()-2);
-                    int nextIndex = aliasEdges.get(this.getEdge(prev, current)).next();
-                    path.add(neighbors.get(nextIndex));
+    private int[] walk(int walkLength, int startNode, FastRandom random) {
+        int[] path = new int[walkLength];
+        path[0] = startNode;
+        int length = 1;
+
+        while (length < walkLength) {
+            int current = path[length - 1]; // the last node on the path
+            if (degree(current) == 0) break;
+            int nextIndex;
+            if (length == 1 || aliasEdges == null) {
+                nextIndex = uniform
+                        ? random.nextInt(degree(current))
+                        : aliasNodes[current].next(random);
+            } else {
+                int prev = path[length - 2];
+                int e = edgeIndex(prev, current);
+                AliasMethod table = aliasEdges[e];
+                if (table == null) {
+                    // only with edgeTablesOnDemand; the store is unsynchronized, so two walkers may
+                    // build the same table and another thread may see it late, both harmless:
+                    // the tables are equal and all AliasMethod fields are final, so a table is
+                    // fully constructed whenever a thread sees it (JLS 17.5)
+                    aliasEdges[e] = table = computeAliasEdge(prev, current);
                 }
-            } else break;
+                nextIndex = table.next(random);
+            }
+            path[length++] = neighbors[offsets[current] + nextIndex];
         }
-        return path;
+        return length == walkLength ? path : Arrays.copyOf(path, length);
     }
 
     /**
      * simulation of a bunch of walks
      * @param numWalks iteration times
      * @param walkLength steps of every walk
-     * @return the list of paths that we've walked
+     * @return the list of paths that we've walked, as internal node ids
      */
-    public List<List> simulateWalks(int numWalks, int walkLength) {
-        List<List> pathList = new ArrayList<>();
-        System.out.println("Walk iteration:");
-        List<Node> nodeList = new ArrayList<>(nodeSet);
-        for (int i = 0; i < numWalks; i++) {
-            System.out.println(i+1+"/"+numWalks);
-            Collections.shuffle(nodeList);
-            for (Node node :
-                    nodeList) {
-                pathList.add(walk(walkLength, node));
-            }
-        }
-        return pathList;
+    public List<int[]> simulateWalks(int numWalks, int walkLength) {
+        return simulateWalks(numWalks, walkLength, 1);
     }
 
     /**
-     * get a node's neighbors in a sorted list
-     * the set of the neighbors of node is defined as {x|node-->x}
-     * sort the nodes according to its ids
-     * @param node the node
-     * @return a sorted list of nodes
+     * simulation of a bunch of walks on a pool of worker threads
+     * every iteration starts one walk from every node, in shuffled order
+     * @param numWalks iteration times
+     * @param walkLength steps of every walk
+     * @param workers number of walker threads
+     * @return the list of paths that we've walked, as internal node ids
      */
-    private List<Node> sortedNeighborList(Node node) {
-        List<Node> neighborList = new ArrayList<>();
-        for (Node n : nodeSet) {
-            if (this.hasEdge(node, n)) neighborList.add(n); // only node-->n
-        }
-        neighborList.sort(Comparator.comparingInt(n -> n.id));
-        return neighborList;
+    public List<int[]> simulateWalks(int numWalks, int walkLength, int workers) {
+        int[] nodes = new int[dictionary.size()];
+        for (int node = 0; node < nodes.length; node++) nodes[node] = node;
+        return simulateWalksFrom(nodes, numWalks, walkLength, workers);
     }
 
     /**
-     * check whether there is an edge between two nodes
-     * note that all the edges in the graph are directive
-     * @param src node1
-     * @param dst node2
-     * @return true is there is an edge
+     * simulation of walks starting from a subset of the nodes
+     * every iteration starts one walk from every given node, in shuffled order
+     * @param nodes the internal ids of the start nodes
+     * @param numWalks iteration times
+     * @param walkLength steps of every walk
+     * @param workers number of walker threads
+     * @return the list of paths that we've walked, as internal node ids
      */
-    private boolean hasEdge(Node src, Node dst) {
-        for (Edge edge : edgeSet) {
-            if (edge.equals(new Edge(src, dst))) {
-                return true;
-            }
-        }
-        return false;
+    public List<int[]> simulateWalksFrom(int[] nodes, int numWalks, int walkLength, int workers) {
+        return simulateWalksFrom(nodes, numWalks, walkLength, workers, null);
     }
 
     /**
-     * get the edge between two nodes
-     * @param src node1
-     * @param dst node2
-     * @return the edge, null is not exist such an edge
+     * simulation of walks starting from a subset of the nodes, counting node visits on the way
+     * @param nodes the internal ids of the start nodes
+     * @param numWalks iteration times
+     * @param walkLength steps of every walk
+     * @param workers number of walker threads
+     * @param counter receives every visited node, null to skip counting
+     * @return the list of paths that we've walked, as internal node ids
      */
-    private Edge getEdge(Node src, Node dst) {
-        for (Edge edge : edgeSet) {
-            if (edge.equals(new Edge(src, dst))) {
-                return edge;
+    public List<int[]> simulateWalksFrom(int[] nodes, int numWalks, int walkLength, int workers,
+                                         VisitCounter counter) {
+        return simulateWalksFrom(nodes, numWalks, walkLength, workers, counter,
+                ThreadLocalRandom.current().nextLong());
+    }
+
+    /**
+     * reproducible simulation of walks starting from a subset of the nodes
+     * the start order and every walk draw from their own stream of the seed,
+     * so the result does not depend on the number of workers
+     * @param nodes the internal ids of the start nodes
+     * @param numWalks iteration times
+     * @param walkLength steps of every walk
+     * @param workers number of walker threads
+     * @param counter receives every visited node, null to skip counting
+     * @param seed the seed of the walks
+     * @return the list of paths that we've walked, as internal node ids
+     */
+    public List<int[]> simulateWalksFrom(int[] nodes, int numWalks, int walkLength, int workers,
+                                         VisitCounter counter, long seed) {
+        if (Double.isNaN(p))
+            throw new IllegalStateException("No edge tables, derive a graph with withParameters first.");
+        int[] starts = new int[Math.multiplyExact(numWalks, nodes.length)];
+        FastRandom random = new FastRandom(seed, -1);
+        for (int i = 0; i < numWalks; i++) {
+            int base = i * nodes.length;
+            for (int k = 0; k < nodes.length; k++) {
+                // inside-out Fisher-Yates shuffle of this iteration's start nodes
+                int j = random.nextInt(k + 1);
+                starts[base + k] = starts[base + j];
+                starts[base + j] = nodes[k];
             }
         }
-        throw new NoSuchElementException();
+        System.out.println("Walking " + numWalks + " iterations over " + nodes.length + " nodes"
+                + (aliasEdges != null ? "..." : uniform ? " (uniform walker)..." : " (first-order walker)..."));
+        return new WalkScheduler(workers).run(starts,
+                (index, start) -> walk(walkLength, start, new FastRandom(seed, index)), counter);
     }
 
     /**
-     * add a new edge to the graph
-     * if such an edge already exists, update the weight
-     * note that all the edges in the graph are directed
-     * if the graph is not directed,
-     * we just simply add two directed edges with the opposite directions
-     * that connect two nodes
-     * @param src first node of the edge
-     * @param dst second node of the edge
-     * @param weight of the edge
+     * read a list of nodes, one external id per line
+     * ids that are not in the graph are skipped, and so are repeated ones
+     * @param file path of the node list
+     * @return the internal ids of the listed nodes, in file order
+     * @throws IOException file not found
      */
-    private void addEdge(Node src, Node dst, double weight) {
-        if (directed) {
-            Edge edge;
-            if (hasEdge(src, dst)) {
-                edge = getEdge(src, dst);
-                edge.weight = weight; // update the weight of the edge
-            } else {
-                edge = new Edge(src, dst, weight);
-                edgeSet.add(edge); // add it to edge set
-            }
-        } else {
-            Edge edge1;
-            Edge edge2;
-            if (hasEdge(src, dst)) {
-                edge1 = getEdge(src, dst);
-                edge2 = getEdge(dst, src);
-                // update the weight of the edges
-                edge1.weight = weight;
-                edge2.weight = weight;
-            } else {
-                edge1 = new Edge(src, dst, weight);
-                edge2 = new Edge(dst, src, weight);
-                // add it to edge set
-                edgeSet.add(edge1);
-                edgeSet.add(edge2);
+    public int[] readNodes(String file) throws IOException {
+        int[] nodes = new int[16];
+        int size = 0, unknown = 0;
+        BitSet seen = new BitSet(numNodes());
+        try (BufferedReader br = new BufferedReader(new InputStreamReader(openText(file), StandardCharsets.UTF_8))) {
+            String lineTxt;
+            while ((lineTxt = br.readLine()) != null) {
+                lineTxt = lineTxt.trim();
+                if (lineTxt.isEmpty()) continue;
+                int node = dictionary.lookup(lineTxt);
+                if (node < 0) {
+                    unknown++;
+                } else if (!seen.get(node)) {
+                    seen.set(node);
+                    if (size == nodes.length) nodes = Arrays.copyOf(nodes, size << 1);
+                    nodes[size++] = node;
+                }
             }
         }
+        if (unknown > 0) System.out.println("Skipped " + unknown + " nodes of " + file + " that are not in the graph");
+        return Arrays.copyOf(nodes, size);
     }
 
     /**
-     * add a node with the id to the graph
-     * if such a node already exists, return it and do nothing
-     * if not, create a new node, add it to the graph and return it
-     * @param id the id of the node
-     * @return the node found
+     * extend a set of nodes with a random sample of their neighborhood
+     * @param nodes the internal ids of the nodes
+     * @param perNode how many out-neighbors of every node to add at most
+     * @param seed the seed of the sample
+     * @return the nodes followed by the sampled neighbors that are not among them, without repeats
      */
-    private Node addNode(int id) {
-        for (Node node : nodeSet) {
-            if (node.id == id) {
-                return node;
+    public int[] withSampledNeighbors(int[] nodes, int perNode, long seed) {
+        BitSet seen = new BitSet(numNodes());
+        for (int node : nodes) seen.set(node);
+        int[] result = Arrays.copyOf(nodes, Math.max(16, nodes.length * 2));
+        int size = nodes.length;
+        int[] chosen = new int[Math.max(perNode, 0)];
+        FastRandom random = new FastRandom(seed);
+        for (int node : nodes) {
+            int degree = degree(node);
+            int count = Math.min(perNode, degree);
+            // Floyd's algorithm: count distinct positions out of degree
+            for (int j = degree - count, k = 0; j < degree; j++, k++) {
+                int t = random.nextInt(j + 1);
+                boolean taken = false;
+                for (int c = 0; c < k && !taken; c++) taken = chosen[c] == t;
+                chosen[k] = taken ? j : t;
+            }
+            for (int k = 0; k < count; k++) {
+                int neighbor = neighbors[offsets[node] + chosen[k]];
+                if (seen.get(neighbor)) continue;
+                seen.set(neighbor);
+                if (size == result.length) result = Arrays.copyOf(result, size << 1);
+                result[size++] = neighbor;
             }
         }
-        // not exists, create a new node with the id
-        Node node = new Node(id);
-        // add it to the nodeSet
-        nodeSet.add(node);
-        return node;
+        return Arrays.copyOf(result, size);
     }
 
-    class Node {
-
-        private int id;
+    /**
+     * check whether there is an edge between two nodes
+     * note that all the edges in the graph are directive
+     * @param src node1
+     * @param dst node2
+     * @return true is there is an edge
+     */
+    private boolean hasEdge(int src, int dst) {
+        return Arrays.binarySearch(neighbors, offsets[src], offsets[src + 1], dst) >= 0;
+    }
 
-        Node(int id) {
-            this.id = id;
-        }
+    /**
+     * get the position of the edge between two nodes in the adjacency arrays
+     * @param src node1
+     * @param dst node2
+     * @return the edge index
+     */
+    private int edgeIndex(int src, int dst) {
+        int e = Arrays.binarySearch(neighbors, offsets[src], offsets[src + 1], dst);
+        if (e < 0) throw new NoSuchElementException();
+        return e;
+    }
 
-        boolean equals(Node that) {
-            return this.id == that.id;
+    /**
+     * rough size of the edge tables that withParameters builds, an upper bound with edgeTablesOnDemand
+     * every edge src-->dst holds a table over the neighbors of dst
+     * @param p return hyperparameter
+     * @param q in-out hyperparameter
+     * @return the estimated number of bytes
+     */
+    public long estimateEdgeTableBytes(double p, double q) {
+        if (isFirstOrder(p, q)) return 0;
+        long entries = 0;
+        for (int e = 0; e < neighbors.length; e++) {
+            entries += degree(neighbors[e]);
         }
+        // int alias + int threshold per entry, plus per table the AliasMethod object,
+        // the headers of its two arrays and its slot in aliasEdges
+        return entries * 2 * Integer.BYTES + neighbors.length * 64L;
+    }
 
-        public int getId() {
-            return id;
-        }
+    private static boolean isFirstOrder(double p, double q) {
+        return p == 1 && q == 1;
     }
 
-    class Edge {
+    private int degree(int node) {
+        return offsets[node + 1] - offsets[node];
+    }
 
-        private Node src, dst;
-        private double weight;
+    public int numNodes() {
+        return dictionary.size();
+    }
 
-        Edge(Node src, Node dst) {
-            if (src == null || dst == null)
-                throw new IllegalArgumentException();
-            this.src = src;
-            this.dst = dst;
-        }
+    public NodeDictionary getDictionary() {
+        return dictionary;
+    }
 
-        Edge(Node src, Node dst, double weight) {
-            if (src == null || dst == null)
-                throw new IllegalArgumentException();
-            this.src = src;
-            this.dst = dst;
-            this.weight = weight;
+    /**
+     * growable primitive arrays holding the edges while the input is read
+     */
+    private static class EdgeBuffer {
+
+        private int[] src = new int[1024];
+        private int[] dst = new int[1024];
+        private double[] weight = new double[1024];
+        private int size;
+
+        void add(int node1, int node2, double w) {
+            if (size == src.length) ensureCapacity(size << 1);
+            src[size] = node1;
+            dst[size] = node2;
+            weight[size] = w;
+            size++;
         }
 
-        /**
-         * two edges are equal if and only if they start at the same node
-         * and end at the same node
-         * @param that the node to compare
-         * @return true if two are equal
-         */
-        boolean equals(Edge that) {
-            return this.src.equals(that.src)
-                    && this.dst.equals(that.dst);
+        void ensureCapacity(int capacity) {
+            if (capacity <= src.length) return;
+            src = Arrays.copyOf(src, capacity);
+            dst = Arrays.copyOf(dst, capacity);
+            weight = Arrays.copyOf(weight, capacity);
         }
     }
 
 }
-
-
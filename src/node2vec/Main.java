@@ -6,10 +6,12 @@ import net.sourceforge.argparse4j.inf.ArgumentParser;
 import net.sourceforge.argparse4j.inf.ArgumentParserException;
 import net.sourceforge.argparse4j.inf.Namespace;
 import word2vec.Model;
+import word2vec.dist.ParameterClient;
+import word2vec.dist.ParameterServer;
 
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -18,6 +20,41 @@ import java.util.List;
 public class Main {
     public static void main(String[] args) {
         // parse arguments
+        ArgumentParser parser = buildParser();
+        try {
+            Namespace ns = parser.parseArgs(args);
+            checkOptions(ns);
+            run(ns);
+        } catch (ArgumentParserException e) {
+            parser.handleError(e);
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("invalid arguments: " + e.getMessage());
+        }
+    }
+
+    /**
+     * reject options that cannot be combined, before any work is done
+     * @param ns the parsed options
+     * @throws IllegalArgumentException two of the options conflict
+     */
+    static void checkOptions(Namespace ns) {
+        String grows = ns.get("foldIn") != null ? "--foldIn" : ns.get("loadModel") != null ? "--loadModel" : null;
+        if (grows != null && ns.get("mmapModel") != null)
+            throw new IllegalArgumentException(grows + " cannot be combined with --mmapModel, "
+                    + "the mapped file has a fixed number of rows");
+        if (grows != null && ns.get("psConnect") != null)
+            throw new IllegalArgumentException(grows + " cannot be combined with --psConnect, "
+                    + "fold-in runs in a single process");
+        if ("pq".equals(ns.getString("quantize"))) {
+            int dimensions = ns.getInt("dimensions");
+            int subspaces = pqSubspaces(ns);
+            if (subspaces <= 0 || dimensions % subspaces != 0)
+                throw new IllegalArgumentException("Number of subspaces " + subspaces
+                        + " must be positive and divide the vector size " + dimensions);
+        }
+    }
+
+    static ArgumentParser buildParser() {
         ArgumentParser parser = ArgumentParsers
                 .newArgumentParser("node2vec")
                 .defaultHelp(true)
@@ -30,6 +67,17 @@ public class Main {
                 .nargs("?")
                 .setDefault("emb/karate.emb")
                 .help("Output embedding path");
+        parser.addArgument("--inputFormat")
+                .choices("text", "int32", "int32f", "int64", "int64f")
+                .setDefault("text")
+                .help("Layout of the input: text lines (plain or gzip), or binary little-endian "
+                        + "src/dst records of int32 or int64, with a float32 weight for the f variants. "
+                        + "Default is text");
+        parser.addArgument("--nodeOrder")
+                .choices("input", "degree", "bfs", "gorder")
+                .setDefault("input")
+                .help("Internal numbering of the nodes, for memory locality of walks and training: "
+                        + "input order, descending degree, breadth-first or greedy Gorder. Default is input");
         parser.addArgument("--dimensions")
                 .type(Integer.class)
                 .setDefault(128)
@@ -49,7 +97,12 @@ public class Main {
         parser.addArgument("--iter")
                 .type(Integer.class)
                 .setDefault(1)
-                .help("Number of epochs in SGD");
+                .help("Number of epochs in SGD. Default is 1");
+        parser.addArgument("--earlyStop")
+                .type(Double.class)
+                .metavar("FRACTION")
+                .help("End training after an epoch that improves the sampled loss by less than this "
+                        + "fraction, e.g. 0.01; use with a larger --iter. Default is to run all epochs");
         parser.addArgument("--workers")
                 .type(Integer.class)
                 .setDefault(8)
@@ -78,47 +131,290 @@ public class Main {
                 .dest("directed")
                 .action(Arguments.storeFalse());
         parser.setDefault("directed", false);
+        parser.addArgument("--stringIds")
+                .dest("stringIds")
+                .action(Arguments.storeTrue())
+                .help("Treat node ids as opaque strings instead of 64-bit integers");
+        parser.setDefault("stringIds", false);
+        parser.addArgument("--singlePrecision")
+                .dest("singlePrecision")
+                .action(Arguments.storeTrue())
+                .help("Train with float32 instead of float64 weights, halving model memory");
+        parser.setDefault("singlePrecision", false);
 
-        try {
-            Namespace ns = parser.parseArgs(args);
-            Graph graph = new Graph(ns.get("input"),
+        parser.addArgument("--negative")
+                .type(Integer.class)
+                .setDefault(0)
+                .help("Train with this many negative samples, shared by the contexts of a node, "
+                        + "instead of hierarchical softmax. Default is 0");
+        parser.addArgument("--offHeap")
+                .dest("offHeap")
+                .action(Arguments.storeTrue())
+                .help("Keep the weights outside the Java heap in float32 direct buffers "
+                        + "(raise -XX:MaxDirectMemorySize accordingly)");
+        parser.setDefault("offHeap", false);
+        parser.addArgument("--mmapModel")
+                .metavar("PATH")
+                .help("Train the embedding in place in this memory-mapped binary file (implies --offHeap); "
+                        + "node ids go to PATH.ids and no text output is written; "
+                        + "in a data-parallel run, the worker of rank R > 0 maps PATH.R");
+        parser.addArgument("--quantize")
+                .choices("int8", "pq")
+                .metavar("FORMAT")
+                .help("Also write the vectors as int8 or product quantization codes to OUTPUT.FORMAT "
+                        + "and report nearest-neighbor recall against the float vectors");
+        parser.addArgument("--pqSubspaces")
+                .type(Integer.class)
+                .help("Number of product quantization subspaces, bytes per vector. Default is dimensions / 4");
+        parser.addArgument("--recallQueries")
+                .type(Integer.class)
+                .setDefault(100)
+                .help("Number of queries of the --quantize recall report, 0 to skip it. Default is 100");
+        parser.addArgument("--foldIn")
+                .metavar("EDGES")
+                .help("After training, or after --loadModel, add the edges of this file and embed "
+                        + "the new nodes into the trained space without moving the other vectors");
+        parser.addArgument("--saveModel")
+                .dest("saveModel")
+                .action(Arguments.storeTrue())
+                .help("Also write the vocabulary and both weight layers to OUTPUT.model, "
+                        + "for a later run with --loadModel");
+        parser.setDefault("saveModel", false);
+        parser.addArgument("--loadModel")
+                .metavar("PATH")
+                .help("Start from a model written by --saveModel instead of walking and training; "
+                        + "--input must hold every node of the stored model");
+        parser.addArgument("--targets")
+                .metavar("FILE")
+                .help("Embed only the nodes listed in this file, one id per line: walks start only "
+                        + "from them and only their vectors are written");
+        parser.addArgument("--targetNeighbors")
+                .type(Integer.class)
+                .setDefault(0)
+                .metavar("K")
+                .help("With --targets, also start walks from up to K sampled neighbors of every target. "
+                        + "Default is 0");
+        parser.addArgument("--seed")
+                .type(Long.class)
+                .help("Random seed. Default is a fresh seed per run");
+        parser.addArgument("--psServer")
+                .type(Integer.class)
+                .metavar("PORT")
+                .help("Run only a parameter server on this port for --psWorkers worker processes");
+        parser.addArgument("--psConnect")
+                .metavar("HOST:PORT")
+                .help("Train as one worker of a data-parallel run, syncing through this parameter server");
+        parser.addArgument("--psWorkers")
+                .type(Integer.class)
+                .setDefault(1)
+                .help("Number of worker processes in a data-parallel run. Default is 1");
+        parser.addArgument("--rank")
+                .type(Integer.class)
+                .setDefault(0)
+                .help("Rank of this worker in a data-parallel run, 0..psWorkers-1; rank 0 writes the output");
+        parser.addArgument("--syncRounds")
+                .type(Integer.class)
+                .setDefault(10)
+                .help("Number of parameter averaging rounds in a data-parallel run. Default is 10");
+        parser.addArgument("--sweep")
+                .metavar("GRID")
+                .help("Run a hyperparameter sweep over a grid such as \"p=0.25,1,4;q=0.5,2;dimensions=64,128\", "
+                        + "writing one text output per configuration; cannot be combined with --targets, "
+                        + "--quantize, --mmapModel, --foldIn, --saveModel, --loadModel or the --ps options");
+        parser.addArgument("--batch")
+                .metavar("MANIFEST")
+                .help("Run the jobs of a manifest in this JVM, one job per line given as the options "
+                        + "of a single run, e.g. \"--input a.edgelist --output a.emb --p 0.5\"; "
+                        + "options a line leaves out are taken from this command");
+        parser.addArgument("--parallelJobs")
+                .type(Integer.class)
+                .setDefault(1)
+                .help("Number of sweep configurations or batch jobs that run at once. Default is 1");
+        parser.addArgument("--memoryBudget")
+                .type(Long.class)
+                .metavar("MB")
+                .help("Memory that concurrently running configurations or jobs may reserve. "
+                        + "Default is 80% of the heap");
+        parser.addArgument("--jobMemory")
+                .type(Long.class)
+                .metavar("MB")
+                .help("Fail batch jobs whose estimated memory exceeds this cap; it caps the estimate "
+                        + "made before a job runs, not the heap the job uses. Default is no cap");
+        return parser;
+    }
+
+    static void run(Namespace ns) throws IOException {
+        if (ns.get("psServer") != null) {
+            Long seed = ns.getLong("seed");
+            new ParameterServer(ns.getInt("psServer"),
+                    ns.getInt("psWorkers"),
+                    ns.getInt("syncRounds"),
+                    seed != null ? seed : System.nanoTime()).serve();
+            return;
+        }
+
+        if (ns.get("sweep") != null || ns.get("batch") != null) {
+            Long budgetMb = ns.getLong("memoryBudget");
+            MemoryBudget budget = budgetMb != null ? new MemoryBudget(budgetMb << 20) : MemoryBudget.ofHeap(0.8);
+            if (ns.get("sweep") != null) {
+                new Sweep(ns, ns.getString("sweep"), ns.getInt("parallelJobs"), budget).run();
+            } else {
+                Long capMb = ns.getLong("jobMemory");
+                new BatchRunner(ns, ns.getString("batch"), ns.getInt("parallelJobs"), budget,
+                        capMb != null ? capMb << 20 : Long.MAX_VALUE).run();
+            }
+            return;
+        }
+
+        String targetFile = ns.getString("targets");
+        Graph graph;
+        if (targetFile == null) {
+            graph = new Graph(ns.get("input"),
+                    EdgeFormat.parse(ns.getString("inputFormat")),
+                    NodeOrder.parse(ns.getString("nodeOrder")),
                     ns.getBoolean("directed"),
                     ns.getDouble("p"),
-                    ns.getDouble("q"));
-            List<List> pathList = graph.
-                    simulateWalks(ns.getInt("numWalks"),
-                    ns.getInt("walkLength"));
+                    ns.getDouble("q"),
+                    ns.getBoolean("stringIds"));
+        } else {
+            // walks from a few targets cross a small part of the edges, build only their tables
+            graph = Graph.firstOrder(ns.get("input"),
+                    EdgeFormat.parse(ns.getString("inputFormat")),
+                    NodeOrder.parse(ns.getString("nodeOrder")),
+                    ns.getBoolean("directed"),
+                    ns.getBoolean("stringIds"))
+                    .withParameters(ns.getDouble("p"), ns.getDouble("q"), true);
+        }
+
+        String psConnect = ns.getString("psConnect");
+        int numWorkers = psConnect == null ? 1 : ns.getInt("psWorkers");
+        int rank = psConnect == null ? 0 : ns.getInt("rank");
+        Long seed = ns.getLong("seed");
+        String loadModel = ns.getString("loadModel");
+        int[] targets = null;
+        int[] sources = null;
+        if (targetFile != null) {
+            targets = graph.readNodes(targetFile);
+            int perNode = ns.getInt("targetNeighbors");
+            sources = perNode > 0
+                    ? graph.withSampledNeighbors(targets, perNode, seed != null ? seed : System.nanoTime())
+                    : targets;
+            if (loadModel == null) {
+                System.out.println("Walking from " + sources.length + " nodes for " + targets.length + " targets");
+            }
+        }
+
+        Model model = newModel(ns);
+        String mmapModel = ns.getString("mmapModel");
+        if (mmapModel != null) {
+            // the workers of a data-parallel run may share a file system, each maps its own replica
+            if (rank > 0) mmapModel = mmapModel + "." + rank;
+            model.setMappedFile(new File(mmapModel));
+        }
+        if (loadModel != null) {
+            model.loadState(new File(loadModel), graph.getDictionary()::lookup, graph.numNodes());
+            System.out.println("Loaded the model stored in " + loadModel);
+        } else {
+            // each worker walks from its own partition of the nodes
+            int numSources = sources != null ? sources.length : graph.numNodes();
+            int[] startNodes = new int[(numSources - rank + numWorkers - 1) / numWorkers];
+            for (int k = 0; k < startNodes.length; k++) {
+                int source = rank + k * numWorkers;
+                startNodes[k] = sources != null ? sources[source] : source;
+            }
+            VisitCounter visits = new VisitCounter(graph.numNodes());
+            List<int[]> pathList = graph.
+                    simulateWalksFrom(startNodes,
+                    ns.getInt("numWalks"),
+                    ns.getInt("walkLength"),
+                    ns.getInt("workers"),
+                    visits,
+                    seed != null ? seed + rank : System.nanoTime()); // a separate seed per worker
 
             System.out.println("Learning Embedding...");
 
-            // convert path list to string
-            String sentList = "";
-            for (List<Graph.Node> path :
-                    pathList) {
-                String sent = "";
-                for (Graph.Node node :
-                        path) {
-                    sent += node.getId() + " ";
+            // use word2vec to do word embedding over the dense node ids
+            if (psConnect == null) {
+                model.learnWalks(pathList, visits.total());
+            } else {
+                int colon = psConnect.lastIndexOf(':');
+                try (ParameterClient client = new ParameterClient(psConnect.substring(0, colon),
+                        Integer.parseInt(psConnect.substring(colon + 1)), rank)) {
+                    model.learnWalks(pathList, visits.total(), client);
                 }
-                sentList += sent + "\n";
             }
-            // write to temp file
-            String tempPath = System.getProperty("java.io.tmpdir");
-            File tempFile = File.createTempFile("pathList", "txt", new File(tempPath));
-            FileWriter fw = new FileWriter(tempFile);
-            fw.write(sentList);
-            fw.flush();
-            fw.close();
-            // use word2vec to do word embedding
-            Model model = new Model(false, ns.getInt("dimensions"), ns.getInt("windowSize"), null, null);
-            model.learnFile(tempFile);
-            model.storeModel(new File(ns.getString("output")));
-
-        } catch (ArgumentParserException e) {
-            parser.handleError(e);
-        } catch (IOException e) {
-            System.err.println("invalid arguments");
         }
+        String foldIn = ns.getString("foldIn");
+        if (foldIn != null) {
+            int known = graph.numNodes();
+            graph = graph.addEdges(foldIn);
+            int[] newNodes = new int[graph.numNodes() - known];
+            for (int k = 0; k < newNodes.length; k++) newNodes[k] = known + k;
+            List<int[]> newPaths = graph.simulateWalksFrom(newNodes,
+                    ns.getInt("numWalks"),
+                    ns.getInt("walkLength"),
+                    ns.getInt("workers"),
+                    null,
+                    seed != null ? seed + 1 : System.nanoTime());
+            System.out.println("Folded in " + model.foldIn(newPaths, graph.numNodes()) + " new nodes");
+            if (targets != null) {
+                // the new nodes are written along with the targets
+                int[] grown = Arrays.copyOf(targets, targets.length + newNodes.length);
+                System.arraycopy(newNodes, 0, grown, targets.length, newNodes.length);
+                targets = grown;
+            }
+        }
+        if (rank == 0) {
+            if (mmapModel != null) {
+                model.storeMappedModel(graph.getDictionary()::externalId);
+            } else if (targets != null) {
+                model.storeModel(new File(ns.getString("output")), graph.getDictionary()::externalId, targets);
+            } else {
+                model.storeModel(new File(ns.getString("output")), graph.getDictionary()::externalId);
+            }
+            String quantize = ns.getString("quantize");
+            if (quantize != null) {
+                File file = new File(ns.getString("output") + "." + quantize);
+                int[] ids = targets;
+                if (ids == null) {
+                    ids = new int[graph.numNodes()];
+                    for (int id = 0; id < ids.length; id++) ids[id] = id;
+                }
+                if (quantize.equals("pq")) {
+                    model.storeProductQuantizedModel(file, graph.getDictionary()::externalId, ids, pqSubspaces(ns));
+                } else {
+                    model.storeInt8Model(file, graph.getDictionary()::externalId, ids);
+                }
+                int queries = ns.getInt("recallQueries");
+                if (queries > 0) System.out.println(model.quantizationReport(file, ids, queries, 10));
+            }
+            if (ns.getBoolean("saveModel")) {
+                model.storeState(new File(ns.getString("output") + ".model"), graph.getDictionary()::externalId);
+            }
+        }
+    }
+
+    /**
+     * @return the number of product quantization subspaces of a run, dimensions / 4 by default
+     */
+    static int pqSubspaces(Namespace ns) {
+        Integer subspaces = ns.getInt("pqSubspaces");
+        return subspaces != null ? subspaces : ns.getInt("dimensions") / 4;
+    }
 
+    /**
+     * create a model with the training options of a run
+     * @param ns the parsed options
+     * @return the untrained model
+     */
+    static Model newModel(Namespace ns) {
+        Model model = new Model(false, ns.getInt("dimensions"), ns.getInt("windowSize"), null, null);
+        model.setSinglePrecision(ns.getBoolean("singlePrecision"));
+        model.setNegative(ns.getInt("negative"));
+        model.setIterations(ns.getInt("iter"));
+        if (ns.get("earlyStop") != null) model.setEarlyStop(ns.getDouble("earlyStop"));
+        model.setOffHeap(ns.getBoolean("offHeap"));
+        if (ns.get("seed") != null) model.setSeed(ns.getLong("seed"));
+        return model;
     }
 }
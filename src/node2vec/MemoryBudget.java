@@ -0,0 +1,58 @@
+package node2vec;
+
+/**
+ * A pool of bytes that concurrent jobs reserve their estimated memory from.
+ * A job blocks until its reservation fits; a job larger than the whole budget
+ * is admitted alone, so that it still runs instead of waiting forever.
+ */
+public class MemoryBudget {
+
+    private final long capacity;
+    private long reserved;
+
+    /**
+     * @param capacity the budget in bytes
+     */
+    public MemoryBudget(long capacity) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("Memory budget must be positive.");
+        this.capacity = capacity;
+    }
+
+    /**
+     * a budget of the given share of the maximum heap
+     * @param fraction share of Runtime.maxMemory()
+     * @return the budget
+     */
+    public static MemoryBudget ofHeap(double fraction) {
+        return new MemoryBudget((long) (Runtime.getRuntime().maxMemory() * fraction));
+    }
+
+    /**
+     * block until the bytes can be reserved
+     * @param bytes the estimated need of a job
+     * @return the number of bytes actually reserved, to be passed to release
+     * @throws InterruptedException interrupted while waiting
+     */
+    public synchronized long acquire(long bytes) throws InterruptedException {
+        long need = Math.min(Math.max(bytes, 0), capacity);
+        while (reserved + need > capacity) {
+            wait();
+        }
+        reserved += need;
+        return need;
+    }
+
+    /**
+     * give back a reservation
+     * @param reservation the value returned by acquire
+     */
+    public synchronized void release(long reservation) {
+        reserved -= reservation;
+        notifyAll();
+    }
+
+    public long getCapacity() {
+        return capacity;
+    }
+}
@@ -0,0 +1,141 @@
+package node2vec;
+
+import node2vec.util.LongIntHashMap;
+import node2vec.util.StringIntHashMap;
+
+import java.util.Arrays;
+
+/**
+ * Maps external node identifiers to dense internal ids 0..size-1.
+ * External ids are either 64-bit longs or opaque strings; walks and training
+ * only ever see the dense ids, which are mapped back by {@link #externalId(int)}
+ * when the embedding is written.
+ */
+public class NodeDictionary {
+
+    private final boolean stringIds;
+
+    private LongIntHashMap longIndex;
+    private long[] longKeys;
+
+    private StringIntHashMap stringIndex;
+    private String[] stringKeys;
+
+    private int size;
+
+    /**
+     * @param stringIds true to treat ids as opaque strings, false for 64-bit integers
+     */
+    public NodeDictionary(boolean stringIds) {
+        this.stringIds = stringIds;
+        if (stringIds) {
+            stringIndex = new StringIntHashMap();
+            stringKeys = new String[16];
+        } else {
+            longIndex = new LongIntHashMap();
+            longKeys = new long[16];
+        }
+    }
+
+    /**
+     * a copy that keeps the ids of the original and grows independently of it
+     * @param other the dictionary to copy
+     */
+    public NodeDictionary(NodeDictionary other) {
+        this(other.stringIds);
+        for (int internal = 0; internal < other.size; internal++) {
+            if (stringIds) internString(other.stringKeys[internal]);
+            else internLong(other.longKeys[internal]);
+        }
+    }
+
+    /**
+     * get the internal id of an external id token, assigning the next dense id
+     * if the token has not been seen before
+     * @param token the external id as it appears in the input
+     * @return the dense internal id
+     * @throws NumberFormatException the dictionary holds long ids and the token is not one
+     */
+    public int intern(String token) {
+        return stringIds ? internString(token) : internLong(Long.parseLong(token));
+    }
+
+    public int internLong(long id) {
+        if (stringIds)
+            throw new IllegalStateException("Dictionary holds string ids.");
+        int internal = longIndex.get(id);
+        if (internal >= 0) return internal;
+        if (size == longKeys.length) longKeys = Arrays.copyOf(longKeys, size << 1);
+        longKeys[size] = id;
+        longIndex.put(id, size);
+        return size++;
+    }
+
+    public int internString(String id) {
+        if (!stringIds)
+            throw new IllegalStateException("Dictionary holds long ids.");
+        int internal = stringIndex.get(id);
+        if (internal >= 0) return internal;
+        if (size == stringKeys.length) stringKeys = Arrays.copyOf(stringKeys, size << 1);
+        stringKeys[size] = id;
+        stringIndex.put(id, size);
+        return size++;
+    }
+
+    /**
+     * renumber the internal ids, keeping the mapping to external ids
+     * @param newIds the new internal id of every current one, a permutation of 0..size-1
+     */
+    public void renumber(int[] newIds) {
+        if (newIds.length != size)
+            throw new IllegalArgumentException("Expected " + size + " new ids, got " + newIds.length);
+        if (stringIds) {
+            String[] keys = new String[stringKeys.length];
+            for (int internal = 0; internal < size; internal++) {
+                keys[newIds[internal]] = stringKeys[internal];
+                stringIndex.put(stringKeys[internal], newIds[internal]);
+            }
+            stringKeys = keys;
+        } else {
+            long[] keys = new long[longKeys.length];
+            for (int internal = 0; internal < size; internal++) {
+                keys[newIds[internal]] = longKeys[internal];
+                longIndex.put(longKeys[internal], newIds[internal]);
+            }
+            longKeys = keys;
+        }
+    }
+
+    /**
+     * look up an external id token without assigning a new id
+     * @param token the external id as it appears in the input
+     * @return the dense internal id, -1 if the token is unknown
+     */
+    public int lookup(String token) {
+        if (stringIds) return stringIndex.get(token);
+        try {
+            return longIndex.get(Long.parseLong(token));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * map a dense internal id back to its external form
+     * @param internal the dense id
+     * @return the external id as text
+     */
+    public String externalId(int internal) {
+        if (internal < 0 || internal >= size)
+            throw new IndexOutOfBoundsException("No node with internal id " + internal);
+        return stringIds ? stringKeys[internal] : Long.toString(longKeys[internal]);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean hasStringIds() {
+        return stringIds;
+    }
+}
@@ -0,0 +1,207 @@
+package node2vec;
+
+import java.util.Arrays;
+
+/**
+ * Orders in which the nodes can be numbered internally.
+ * <p>
+ * Internal ids decide where a node's adjacency and its rows of the embedding
+ * matrices live, so an order that gives nearby ids to nodes that are visited
+ * together turns the scattered reads of walks and context updates into
+ * mostly cache-resident ones. Every order is a permutation computed from the
+ * adjacency in input order; external ids are unaffected.
+ */
+public enum NodeOrder {
+
+    /** ids in order of first appearance in the input */
+    INPUT {
+        @Override
+        int[] permutation(int[] offsets, int[] neighbors) {
+            int[] newIds = new int[offsets.length - 1];
+            for (int node = 0; node < newIds.length; node++) newIds[node] = node;
+            return newIds;
+        }
+    },
+
+    /** descending degree, so that the hubs most walks pass through share a few pages */
+    DEGREE {
+        @Override
+        int[] permutation(int[] offsets, int[] neighbors) {
+            return inverse(byDegree(offsets));
+        }
+    },
+
+    /** breadth-first from the highest-degree node of every component, like Cuthill-McKee */
+    BFS {
+        @Override
+        int[] permutation(int[] offsets, int[] neighbors) {
+            int numNodes = offsets.length - 1;
+            int[] newIds = new int[numNodes];
+            Arrays.fill(newIds, -1);
+            int[] queue = new int[numNodes];
+            int next = 0;
+            for (int root : byDegree(offsets)) {
+                if (newIds[root] >= 0) continue;
+                int head = next;
+                queue[next] = root;
+                newIds[root] = next++;
+                while (head < next) {
+                    int node = queue[head++];
+                    for (int e = offsets[node]; e < offsets[node + 1]; e++) {
+                        int neighbor = neighbors[e];
+                        if (newIds[neighbor] >= 0) continue;
+                        queue[next] = neighbor;
+                        newIds[neighbor] = next++;
+                    }
+                }
+            }
+            return newIds;
+        }
+    },
+
+    /**
+     * greedy Gorder: the next id goes to the node with the most neighbors and
+     * shared neighbors among the last WINDOW placed nodes; shared neighbors
+     * through hubs above HUB_DEGREE are not counted, which bounds the cost
+     */
+    GORDER {
+        @Override
+        int[] permutation(int[] offsets, int[] neighbors) {
+            int numNodes = offsets.length - 1;
+            int[] newIds = new int[numNodes];
+            Arrays.fill(newIds, -1);
+            int[] placed = new int[numNodes];
+            int[] fallback = byDegree(offsets);
+            int nextFallback = 0;
+            ScoreBuckets candidates = new ScoreBuckets(numNodes);
+            for (int next = 0; next < numNodes; next++) {
+                int node = candidates.pollMax();
+                if (node < 0) {
+                    // nothing is related to the window, start over at the largest unplaced hub
+                    while (newIds[fallback[nextFallback]] >= 0) nextFallback++;
+                    node = fallback[nextFallback];
+                }
+                newIds[node] = next;
+                placed[next] = node;
+                updateScores(node, 1, offsets, neighbors, newIds, candidates);
+                if (next >= WINDOW) {
+                    updateScores(placed[next - WINDOW], -1, offsets, neighbors, newIds, candidates);
+                }
+            }
+            return newIds;
+        }
+    };
+
+    /* number of recently placed nodes that candidates are scored against */
+    private static final int WINDOW = 5;
+    /* neighbors with a higher degree do not make their neighbors siblings */
+    private static final int HUB_DEGREE = 64;
+
+    /**
+     * @param offsets the CSR offsets of the adjacency
+     * @param neighbors the CSR neighbors of the adjacency
+     * @return the new id of every node, a permutation of 0..numNodes-1
+     */
+    abstract int[] permutation(int[] offsets, int[] neighbors);
+
+    /**
+     * @param name the order name in any case, e.g. "bfs"
+     * @return the order
+     */
+    public static NodeOrder parse(String name) {
+        return valueOf(name.toUpperCase());
+    }
+
+    /**
+     * @return the nodes by descending degree, ties in id order
+     */
+    private static int[] byDegree(int[] offsets) {
+        int numNodes = offsets.length - 1;
+        long[] keys = new long[numNodes];
+        for (int node = 0; node < numNodes; node++) {
+            keys[node] = ((long) (Integer.MAX_VALUE - (offsets[node + 1] - offsets[node])) << 32) | node;
+        }
+        Arrays.sort(keys);
+        int[] nodes = new int[numNodes];
+        for (int k = 0; k < numNodes; k++) nodes[k] = (int) keys[k];
+        return nodes;
+    }
+
+    private static int[] inverse(int[] order) {
+        int[] newIds = new int[order.length];
+        for (int k = 0; k < order.length; k++) newIds[order[k]] = k;
+        return newIds;
+    }
+
+    /**
+     * add delta to the score of the unplaced neighbors and siblings of a node
+     */
+    private static void updateScores(int node, int delta, int[] offsets, int[] neighbors, int[] newIds,
+                                     ScoreBuckets candidates) {
+        for (int e = offsets[node]; e < offsets[node + 1]; e++) {
+            int neighbor = neighbors[e];
+            if (newIds[neighbor] < 0) candidates.add(neighbor, delta);
+            if (offsets[neighbor + 1] - offsets[neighbor] > HUB_DEGREE) continue;
+            for (int f = offsets[neighbor]; f < offsets[neighbor + 1]; f++) {
+                int sibling = neighbors[f];
+                if (sibling != node && newIds[sibling] < 0) candidates.add(sibling, delta);
+            }
+        }
+    }
+
+    /**
+     * the nodes with a positive score, in one doubly linked list per score,
+     * so that a score changes by one and the maximum is found in constant time
+     */
+    private static final class ScoreBuckets {
+
+        private final int[] score, prev, next;
+        private int[] head = new int[16];
+        private int top;
+
+        ScoreBuckets(int numNodes) {
+            score = new int[numNodes];
+            prev = new int[numNodes];
+            next = new int[numNodes];
+            Arrays.fill(head, -1);
+        }
+
+        void add(int node, int delta) {
+            if (score[node] > 0) unlink(node);
+            score[node] += delta;
+            if (score[node] > 0) link(node);
+        }
+
+        /**
+         * @return a node with the highest score, removed from the buckets, -1 if none is left
+         */
+        int pollMax() {
+            while (top > 0 && head[top] < 0) top--;
+            if (top == 0) return -1;
+            int node = head[top];
+            unlink(node);
+            score[node] = 0;
+            return node;
+        }
+
+        private void link(int node) {
+            int s = score[node];
+            if (s >= head.length) {
+                int old = head.length;
+                head = Arrays.copyOf(head, Math.max(s + 1, old << 1));
+                Arrays.fill(head, old, head.length, -1);
+            }
+            prev[node] = -1;
+            next[node] = head[s];
+            if (head[s] >= 0) prev[head[s]] = node;
+            head[s] = node;
+            if (s > top) top = s;
+        }
+
+        private void unlink(int node) {
+            if (prev[node] >= 0) next[prev[node]] = next[node];
+            else head[score[node]] = next[node];
+            if (next[node] >= 0) prev[next[node]] = prev[node];
+        }
+    }
+}
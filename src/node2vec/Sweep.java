@@ -0,0 +1,300 @@
+package node2vec;
+
+import net.sourceforge.argparse4j.inf.Namespace;
+import word2vec.Model;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Function;
+
+/**
+ * Hyperparameter sweep over a grid of configurations on one graph.
+ * <p>
+ * The edge list is loaded and the first-order tables are built once. Every
+ * distinct (p, q) gets its own edge tables, and every distinct
+ * (p, q, walkLength, numWalks, seed) its own walk corpus; both are shared by
+ * all configurations that need them and dropped after the last one is done.
+ * Configurations run concurrently, each reserving its estimated memory from a
+ * {@link MemoryBudget} first.
+ * <p>
+ * Every configuration walks from all nodes and writes a text embedding; a
+ * sweep whose options ask for more, e.g. --targets or --quantize, is rejected
+ * before anything runs.
+ */
+public class Sweep {
+
+    /* the parameters a grid may vary, with their parsers */
+    private static final Map<String, Function<String, Object>> PARAMETERS = new LinkedHashMap<>();
+
+    static {
+        PARAMETERS.put("p", Double::valueOf);
+        PARAMETERS.put("q", Double::valueOf);
+        PARAMETERS.put("walkLength", Integer::valueOf);
+        PARAMETERS.put("numWalks", Integer::valueOf);
+        PARAMETERS.put("seed", Long::valueOf);
+        PARAMETERS.put("dimensions", Integer::valueOf);
+        PARAMETERS.put("windowSize", Integer::valueOf);
+        PARAMETERS.put("negative", Integer::valueOf);
+    }
+
+    /* options of a single run that a sweep does not implement */
+    private static final String[] UNSUPPORTED = {"targets", "quantize", "pqSubspaces", "mmapModel", "foldIn",
+            "loadModel", "psServer", "psConnect", "batch"};
+
+    private final Namespace base;
+    private final List<Map<String, Object>> grid;
+    private final int parallelJobs;
+    private final MemoryBudget budget;
+
+    private Graph graph;
+    private final SharedCache<Graph> transitions = new SharedCache<>();
+    private final SharedCache<WalkCorpus> corpora = new SharedCache<>();
+
+    /**
+     * @param base the options shared by all configurations
+     * @param spec the grid, e.g. "p=0.25,1,4;q=0.5,2;dimensions=64,128"
+     * @param parallelJobs the maximum number of configurations that run at once
+     * @param budget the memory that running configurations reserve from
+     */
+    public Sweep(Namespace base, String spec, int parallelJobs, MemoryBudget budget) {
+        if (parallelJobs <= 0)
+            throw new IllegalArgumentException("Number of parallel jobs must be positive.");
+        checkSupported(base);
+        this.base = base;
+        this.grid = parseGrid(spec);
+        this.parallelJobs = parallelJobs;
+        this.budget = budget;
+    }
+
+    /**
+     * @throws IllegalArgumentException the options set something that runConfig would ignore
+     */
+    static void checkSupported(Namespace base) {
+        for (String option : UNSUPPORTED) {
+            if (base.get(option) != null)
+                throw new IllegalArgumentException("--" + option + " is not supported in a sweep");
+        }
+        if (base.getInt("targetNeighbors") != 0)
+            throw new IllegalArgumentException("--targetNeighbors is not supported in a sweep");
+        if (base.getBoolean("saveModel"))
+            throw new IllegalArgumentException("--saveModel is not supported in a sweep");
+    }
+
+    /**
+     * parse a grid spec into the list of its points, the cartesian product of all value lists
+     * @param spec semicolon-separated name=value1,value2,... terms
+     * @return the parameter overrides of every configuration
+     */
+    static List<Map<String, Object>> parseGrid(String spec) {
+        List<Map<String, Object>> points = new ArrayList<>();
+        points.add(new LinkedHashMap<>());
+        for (String term : spec.split(";")) {
+            term = term.trim();
+            if (term.isEmpty()) continue;
+            int eq = term.indexOf('=');
+            String name = eq < 0 ? term : term.substring(0, eq).trim();
+            Function<String, Object> parser = PARAMETERS.get(name);
+            if (eq < 0 || parser == null)
+                throw new IllegalArgumentException("Invalid sweep term '" + term + "', expected one of "
+                        + PARAMETERS.keySet() + " followed by =value1,value2,...");
+            List<Map<String, Object>> expanded = new ArrayList<>();
+            for (Map<String, Object> point : points) {
+                for (String value : term.substring(eq + 1).split(",")) {
+                    Map<String, Object> next = new LinkedHashMap<>(point);
+                    next.put(name, parser.apply(value.trim()));
+                    expanded.add(next);
+                }
+            }
+            points = expanded;
+        }
+        return points;
+    }
+
+    /**
+     * run every configuration of the grid, writing one embedding per configuration
+     * @throws IOException input or output failed
+     */
+    public void run() throws IOException {
+        graph = Graph.firstOrder(base.getString("input"),
+                EdgeFormat.parse(base.getString("inputFormat")),
+                NodeOrder.parse(base.getString("nodeOrder")),
+                base.getBoolean("directed"),
+                base.getBoolean("stringIds"));
+        List<Namespace> configs = new ArrayList<>();
+        for (Map<String, Object> point : grid) {
+            Map<String, Object> attrs = new HashMap<>(base.getAttrs());
+            attrs.putAll(point);
+            attrs.put("output", outputPath(base.getString("output"), point));
+            Namespace config = new Namespace(attrs);
+            configs.add(config);
+            if (corpora.expect(walkKey(config))) transitions.expect(transitionKey(config));
+        }
+        System.out.println("Sweeping " + configs.size() + " configurations, " + parallelJobs
+                + " at a time, within " + budget.getCapacity() / (1 << 20) + " MB");
+
+        ExecutorService pool = Executors.newFixedThreadPool(parallelJobs);
+        List<Future<String>> results = new ArrayList<>();
+        try {
+            for (Namespace config : configs) {
+                results.add(pool.submit(() -> runConfig(config)));
+            }
+            for (Future<String> result : results) {
+                System.out.println(result.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Sweep interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+            throw new RuntimeException(e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private String runConfig(Namespace config) throws Exception {
+        long reservation = budget.acquire(estimateBytes(graph, config));
+        try {
+            long begin = System.nanoTime();
+            String walkKey = walkKey(config);
+            boolean[] walked = new boolean[1];
+            long walkedAt;
+            try {
+                WalkCorpus corpus = corpora.get(walkKey, () -> {
+                    walked[0] = true;
+                    return generateWalks(config);
+                });
+                walkedAt = System.nanoTime();
+                Model model = Main.newModel(config);
+                model.learnWalks(corpus.walks, corpus.counts);
+                model.storeModel(new File(config.getString("output")), graph.getDictionary()::externalId);
+            } finally {
+                corpora.release(walkKey);
+            }
+            long end = System.nanoTime();
+            return String.format("%s: walks %s in %.3fs, training %.3fs",
+                    config.getString("output"), walked[0] ? "generated" : "reused",
+                    (walkedAt - begin) / 1e9, (end - walkedAt) / 1e9);
+        } finally {
+            budget.release(reservation);
+        }
+    }
+
+    private WalkCorpus generateWalks(Namespace config) throws Exception {
+        String transitionKey = transitionKey(config);
+        try {
+            Graph derived = transitions.get(transitionKey,
+                    () -> graph.withParameters(config.getDouble("p"), config.getDouble("q")));
+            VisitCounter visits = new VisitCounter(graph.numNodes());
+            Long seed = config.getLong("seed");
+            List<int[]> walks = derived.simulateWalksFrom(allNodes(),
+                    config.getInt("numWalks"), config.getInt("walkLength"),
+                    config.getInt("workers"), visits, seed != null ? seed : System.nanoTime());
+            return new WalkCorpus(walks, visits.total());
+        } finally {
+            transitions.release(transitionKey);
+        }
+    }
+
+    private int[] allNodes() {
+        int[] nodes = new int[graph.numNodes()];
+        for (int node = 0; node < nodes.length; node++) nodes[node] = node;
+        return nodes;
+    }
+
+    /**
+     * upper estimate of the memory one configuration needs: its edge tables,
+     * its walk corpus and the weights, even if the first two end up shared
+     */
+    static long estimateBytes(Graph graph, Namespace config) {
+        long nodes = graph.numNodes();
+        int valueBytes = config.getBoolean("singlePrecision") || config.getBoolean("offHeap")
+                ? Float.BYTES : Double.BYTES;
+        long weights = 2 * nodes * config.getInt("dimensions") * valueBytes;
+        long walks = config.getInt("numWalks") * nodes * (config.getInt("walkLength") * (long) Integer.BYTES + 16)
+                + config.getInt("workers") * nodes * Integer.BYTES; // visit counter stripes
+        return weights + walks + graph.estimateEdgeTableBytes(config.getDouble("p"), config.getDouble("q"));
+    }
+
+    private static String transitionKey(Namespace config) {
+        return config.get("p") + "|" + config.get("q");
+    }
+
+    private static String walkKey(Namespace config) {
+        return transitionKey(config) + "|" + config.get("walkLength") + "|" + config.get("numWalks")
+                + "|" + config.get("seed");
+    }
+
+    /**
+     * insert the swept values into an output path, before its extension
+     * e.g. emb/karate.emb becomes emb/karate.p0.5_q2.0.emb
+     */
+    static String outputPath(String output, Map<String, Object> point) {
+        StringBuilder suffix = new StringBuilder();
+        for (Map.Entry<String, Object> entry : point.entrySet()) {
+            suffix.append(suffix.length() == 0 ? "" : "_").append(entry.getKey()).append(entry.getValue());
+        }
+        if (suffix.length() == 0) return output;
+        int slash = output.lastIndexOf(File.separatorChar);
+        int dot = output.lastIndexOf('.');
+        if (dot <= slash + 1) return output + "." + suffix;
+        return output.substring(0, dot) + "." + suffix + output.substring(dot);
+    }
+
+    private static class WalkCorpus {
+        private final List<int[]> walks;
+        private final long[] counts;
+
+        WalkCorpus(List<int[]> walks, long[] counts) {
+            this.walks = walks;
+            this.counts = counts;
+        }
+    }
+
+    /**
+     * values that are computed once by whichever user needs them first,
+     * and dropped when the number of users announced up front have released them
+     */
+    private static class SharedCache<T> {
+
+        private final Map<String, Entry<T>> entries = new HashMap<>();
+
+        /**
+         * announce one more user of a key
+         * @return true if the key was not announced before
+         */
+        synchronized boolean expect(String key) {
+            Entry<T> entry = entries.get(key);
+            if (entry == null) {
+                entries.put(key, entry = new Entry<>());
+            }
+            return entry.users++ == 0;
+        }
+
+        T get(String key, Callable<T> loader) throws Exception {
+            FutureTask<T> task;
+            synchronized (this) {
+                Entry<T> entry = entries.get(key);
+                if (entry.task == null) entry.task = new FutureTask<>(loader);
+                task = entry.task;
+            }
+            task.run(); // no-op if another user already ran it
+            try {
+                return task.get();
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+            }
+        }
+
+        synchronized void release(String key) {
+            if (--entries.get(key).users == 0) entries.remove(key);
+        }
+
+        private static class Entry<T> {
+            private FutureTask<T> task;
+            private int users;
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package node2vec;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Counts node visits while walks are generated.
+ * <p>
+ * Every running walk task borrows a stripe, a plain int[] over all nodes,
+ * so counting needs neither atomics nor locks; a task returns its stripe
+ * when it finishes, so there are about as many stripes as walker threads.
+ * The stripes are summed once the walks are done and then dropped. The
+ * result is exactly the word count of the walk corpus, which saves the model
+ * a counting pass over the walks.
+ */
+public class VisitCounter {
+
+    private final int numNodes;
+    // every stripe handed out, and those not borrowed right now
+    private final List<Stripe> stripes = new ArrayList<>();
+    private final ArrayDeque<Stripe> free = new ArrayDeque<>();
+    // counts moved out of stripes that could otherwise overflow, allocated on first use
+    private long[] spilled;
+    private long[] total;
+
+    public VisitCounter(int numNodes) {
+        this.numNodes = numNodes;
+    }
+
+    /**
+     * @return a stripe for the calling task, to be given back with release
+     */
+    Stripe acquire() {
+        synchronized (stripes) {
+            if (total != null)
+                throw new IllegalStateException("Visits were already totalled.");
+            Stripe stripe = free.poll();
+            if (stripe == null) {
+                stripe = new Stripe(numNodes);
+                stripes.add(stripe);
+            }
+            return stripe;
+        }
+    }
+
+    void release(Stripe stripe) {
+        synchronized (stripes) {
+            free.push(stripe);
+        }
+    }
+
+    /**
+     * count the nodes of a walk into a stripe
+     * @param stripe a stripe borrowed by the calling task
+     * @param path the walk
+     */
+    void count(Stripe stripe, int[] path) {
+        // no node of a stripe can pass Integer.MAX_VALUE while its total stays below it
+        if (stripe.steps + path.length > Integer.MAX_VALUE) spill(stripe);
+        int[] counts = stripe.counts;
+        for (int node : path) {
+            counts[node]++;
+        }
+        stripe.steps += path.length;
+    }
+
+    private void spill(Stripe stripe) {
+        synchronized (stripes) {
+            if (spilled == null) spilled = new long[numNodes];
+            for (int node = 0; node < numNodes; node++) {
+                spilled[node] += stripe.counts[node];
+                stripe.counts[node] = 0;
+            }
+        }
+        stripe.steps = 0;
+    }
+
+    /**
+     * sum and release the stripes, only valid once all walker threads are done
+     * @return the visit count of every node, indexed by internal id
+     */
+    public long[] total() {
+        synchronized (stripes) {
+            if (total == null) {
+                total = spilled != null ? spilled : new long[numNodes];
+                for (Stripe stripe : stripes) {
+                    for (int node = 0; node < numNodes; node++) {
+                        total[node] += stripe.counts[node];
+                    }
+                }
+                stripes.clear();
+                free.clear();
+                spilled = null;
+            }
+            return total.clone();
+        }
+    }
+
+    /**
+     * the counts of one walk task
+     */
+    static final class Stripe {
+        private final int[] counts;
+        private long steps;
+
+        private Stripe(int numNodes) {
+            counts = new int[numNodes];
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package node2vec;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Runs a batch of random walks on a work-stealing pool.
+ * <p>
+ * The walks are handed out as index ranges over the start list. A range is
+ * split lazily: a worker only forks off half of its remaining range when the
+ * pool has no surplus of queued tasks, i.e. when another worker is about to
+ * go idle. Leaves re-check this every few walks, so a chunk that turns out to
+ * be expensive (hubs, long walks) is split again while it is being processed
+ * instead of becoming the straggler that dominates the tail of the phase.
+ * Walk and step counts are recorded per worker thread to expose imbalance.
+ */
+public class WalkScheduler {
+
+    /* do not split ranges below this many walks */
+    private static final int MIN_CHUNK = 16;
+    /* how many walks a leaf runs between two checks for idle workers */
+    private static final int CHECK_INTERVAL = 32;
+    /* split while fewer than this many surplus tasks are queued */
+    private static final int SURPLUS_THRESHOLD = 2;
+
+    private final int workers;
+
+    private final Map<String, ThreadStats> stats = new ConcurrentHashMap<>();
+
+    public WalkScheduler(int workers) {
+        if (workers <= 0)
+            throw new IllegalArgumentException("Number of workers must be positive.");
+        this.workers = workers;
+    }
+
+    /**
+     * run one walk per entry of the start list, counting the visited nodes
+     * @param starts the start node of every walk
+     * @param walker runs a single walk, given its position in the start list
+     * @param counter receives the nodes of every walk, null to skip counting
+     * @return the walks, in the order of the start list
+     */
+    public List<int[]> run(int[] starts, Walker walker, VisitCounter counter) {
+        int[][] paths = new int[starts.length][];
+        stats.clear();
+        long begin = System.nanoTime();
+        ForkJoinPool pool = new ForkJoinPool(workers);
+        try {
+            pool.invoke(new WalkTask(starts, walker, counter, paths, 0, starts.length));
+        } finally {
+            pool.shutdown();
+        }
+        report(System.nanoTime() - begin);
+        return Arrays.asList(paths);
+    }
+
+    /**
+     * @return the walk statistics of the last run, per worker thread
+     */
+    public Map<String, ThreadStats> getStats() {
+        return stats;
+    }
+
+    private void report(long elapsedNanos) {
+        long walks = 0, steps = 0, maxBusy = 0, totalBusy = 0;
+        for (ThreadStats s : stats.values()) {
+            walks += s.walks;
+            steps += s.steps;
+            totalBusy += s.busyNanos;
+            maxBusy = Math.max(maxBusy, s.busyNanos);
+        }
+        double seconds = elapsedNanos / 1e9;
+        System.out.println("Walked " + walks + " walks, " + steps + " steps in "
+                + String.format("%.3f", seconds) + "s ("
+                + String.format("%.0f", steps / Math.max(seconds, 1e-9)) + " steps/s)");
+        for (Map.Entry<String, ThreadStats> entry : stats.entrySet()) {
+            ThreadStats s = entry.getValue();
+            System.out.println("  " + entry.getKey() + ": " + s.walks + " walks, " + s.steps + " steps, "
+                    + String.format("%.0f", s.steps / Math.max(s.busyNanos / 1e9, 1e-9)) + " steps/s");
+        }
+        if (!stats.isEmpty() && totalBusy > 0) {
+            double meanBusy = totalBusy / (double) stats.size();
+            System.out.println("  load imbalance (max/mean busy time): "
+                    + String.format("%.2f", maxBusy / meanBusy));
+        }
+    }
+
+    /**
+     * a single walk of a batch
+     */
+    public interface Walker {
+        /**
+         * @param index the position of the walk in the start list
+         * @param start the start node
+         * @return the visited nodes
+         */
+        int[] walk(int index, int start);
+    }
+
+    /**
+     * walk counters of one worker thread
+     */
+    public static class ThreadStats {
+        private long walks, steps, busyNanos;
+
+        private synchronized void add(long walks, long steps, long busyNanos) {
+            this.walks += walks;
+            this.steps += steps;
+            this.busyNanos += busyNanos;
+        }
+
+        public synchronized long getWalks() {
+            return walks;
+        }
+
+        public synchronized long getSteps() {
+            return steps;
+        }
+
+        public synchronized long getBusyNanos() {
+            return busyNanos;
+        }
+    }
+
+    private class WalkTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int[] starts;
+        private final Walker walker;
+        private final VisitCounter counter;
+        private final int[][] paths;
+        private final int from, to;
+
+        WalkTask(int[] starts, Walker walker, VisitCounter counter,
+                 int[][] paths, int from, int to) {
+            this.starts = starts;
+            this.walker = walker;
+            this.counter = counter;
+            this.paths = paths;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            List<WalkTask> forked = new ArrayList<>();
+            int lo = from, hi = to;
+            long walks = 0, steps = 0;
+            long begin = System.nanoTime();
+            VisitCounter.Stripe visits = counter == null ? null : counter.acquire();
+            while (lo < hi) {
+                // give half of the remaining range away while other workers are hungry
+                while (hi - lo > MIN_CHUNK && getSurplusQueuedTaskCount() < SURPLUS_THRESHOLD) {
+                    int mid = (lo + hi) >>> 1;
+                    WalkTask right = new WalkTask(starts, walker, counter, paths, mid, hi);
+                    right.fork();
+                    forked.add(right);
+                    hi = mid;
+                }
+                int end = Math.min(hi, lo + CHECK_INTERVAL);
+                for (; lo < end; lo++) {
+                    int[] path = walker.walk(lo, starts[lo]);
+                    paths[lo] = path;
+                    if (visits != null) counter.count(visits, path);
+                    steps += path.length;
+                    walks++;
+                }
+            }
+            stats.computeIfAbsent(Thread.currentThread().getName(), name -> new ThreadStats())
+                    .add(walks, steps, System.nanoTime() - begin);
+            if (visits != null) counter.release(visits);
+            for (int i = forked.size() - 1; i >= 0; i--) {
+                forked.get(i).join();
+            }
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package node2vec.util;
+
+/**
+ * Small, unsynchronized xoroshiro128++ generator for the sampling hot loops.
+ * <p>
+ * One instance belongs to one thread (or one walk) at a time. The state is
+ * seeded through SplitMix64, and numbered streams derived from the same seed
+ * get disjoint seeds, so a batch of walks can give every walk its own
+ * generator and stay reproducible no matter which thread runs it.
+ */
+public final class FastRandom {
+
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+    private long s0, s1;
+
+    /**
+     * @param seed the seed
+     */
+    public FastRandom(long seed) {
+        this(seed, 0);
+    }
+
+    /**
+     * a generator for one of many independent streams of the same seed
+     * @param seed the seed shared by all streams
+     * @param stream the number of this stream
+     */
+    public FastRandom(long seed, long stream) {
+        long z = mix(seed) + 2 * stream * GOLDEN_GAMMA;
+        s0 = mix(z + GOLDEN_GAMMA);
+        s1 = mix(z + 2 * GOLDEN_GAMMA);
+        if ((s0 | s1) == 0) s1 = GOLDEN_GAMMA; // the all-zero state is a fixed point
+    }
+
+    /**
+     * @return 64 uniformly random bits
+     */
+    public long nextLong() {
+        long a = s0, b = s1;
+        long result = Long.rotateLeft(a + b, 17) + a;
+        b ^= a;
+        s0 = Long.rotateLeft(a, 49) ^ b ^ (b << 21);
+        s1 = Long.rotateLeft(b, 28);
+        return result;
+    }
+
+    /**
+     * a value in [0, bound), by multiply-shift instead of division
+     * the bias is below bound / 2^32, far below anything a walk can observe
+     * @param bound the positive upper bound
+     * @return the value
+     */
+    public int nextInt(int bound) {
+        return (int) (((nextLong() >>> 32) * bound) >>> 32);
+    }
+
+    /**
+     * the SplitMix64 finalizer, a bijective bit mixer
+     */
+    public static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
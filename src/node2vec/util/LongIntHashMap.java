@@ -0,0 +1,117 @@
+package node2vec.util;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing hash map from primitive long keys to non-negative int values.
+ * Linear probing over power-of-two tables, no boxing and no per-entry objects.
+ */
+public final class LongIntHashMap {
+
+    private static final int NO_VALUE = -1;
+    private static final float LOAD_FACTOR = 0.6f;
+    /* the largest power-of-two table size, doubling it overflows an int */
+    static final int MAX_CAPACITY = 1 << 30;
+
+    private long[] keys;
+    private int[] values;
+    private int mask;
+    private int size;
+    private int resizeAt;
+
+    public LongIntHashMap() {
+        this(16);
+    }
+
+    public LongIntHashMap(int expectedSize) {
+        allocate(tableSizeFor(expectedSize));
+    }
+
+    /**
+     * get the value mapped to a key
+     * @param key the key
+     * @return the value, -1 if the key is absent
+     */
+    public int get(long key) {
+        int slot = mix(key) & mask;
+        while (values[slot] != NO_VALUE) {
+            if (keys[slot] == key) return values[slot];
+            slot = (slot + 1) & mask;
+        }
+        return NO_VALUE;
+    }
+
+    /**
+     * map a key to a value, replacing any previous value
+     * @param key the key
+     * @param value a non-negative value
+     */
+    public void put(long key, int value) {
+        if (value < 0)
+            throw new IllegalArgumentException("Values must be non-negative.");
+        int slot = mix(key) & mask;
+        while (values[slot] != NO_VALUE) {
+            if (keys[slot] == key) {
+                values[slot] = value;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        if (++size >= resizeAt) rehash(grownCapacity(values.length, size));
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        allocate(capacity);
+        for (int i = 0; i < oldValues.length; i++) {
+            if (oldValues[i] == NO_VALUE) continue;
+            int slot = mix(oldKeys[i]) & mask;
+            while (values[slot] != NO_VALUE) slot = (slot + 1) & mask;
+            keys[slot] = oldKeys[i];
+            values[slot] = oldValues[i];
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new int[capacity];
+        Arrays.fill(values, NO_VALUE);
+        mask = capacity - 1;
+        resizeAt = (int) (capacity * LOAD_FACTOR);
+    }
+
+    static int tableSizeFor(int expectedSize) {
+        long needed = (long) Math.ceil(Math.max(expectedSize, 2) / LOAD_FACTOR);
+        if (needed > MAX_CAPACITY)
+            throw new IllegalArgumentException("Map too large: " + expectedSize);
+        return Integer.highestOneBit((int) needed - 1) << 1;
+    }
+
+    /**
+     * @return the table size after capacity, twice as large
+     * @throws IllegalStateException the table cannot grow any more
+     */
+    static int grownCapacity(int capacity, int size) {
+        if (capacity >= MAX_CAPACITY)
+            throw new IllegalStateException("The node dictionary is full: " + size
+                    + " nodes fill the largest table of " + MAX_CAPACITY + " slots");
+        return capacity << 1;
+    }
+
+    /* murmur3 finalizer, so that sequential ids spread over the table */
+    private static int mix(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+}
@@ -0,0 +1,100 @@
+package node2vec.util;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing hash map from String keys to non-negative int values.
+ * Key hashes are cached next to the keys so that probing and rehashing
+ * never call {@link String#equals} on a mismatching hash.
+ */
+public final class StringIntHashMap {
+
+    private static final int NO_VALUE = -1;
+    private static final float LOAD_FACTOR = 0.6f;
+
+    private String[] keys;
+    private int[] hashes;
+    private int[] values;
+    private int mask;
+    private int size;
+    private int resizeAt;
+
+    public StringIntHashMap() {
+        this(16);
+    }
+
+    public StringIntHashMap(int expectedSize) {
+        allocate(LongIntHashMap.tableSizeFor(expectedSize));
+    }
+
+    /**
+     * get the value mapped to a key
+     * @param key the key
+     * @return the value, -1 if the key is absent
+     */
+    public int get(String key) {
+        int hash = spread(key.hashCode());
+        int slot = hash & mask;
+        while (values[slot] != NO_VALUE) {
+            if (hashes[slot] == hash && keys[slot].equals(key)) return values[slot];
+            slot = (slot + 1) & mask;
+        }
+        return NO_VALUE;
+    }
+
+    /**
+     * map a key to a value, replacing any previous value
+     * @param key the key
+     * @param value a non-negative value
+     */
+    public void put(String key, int value) {
+        if (value < 0)
+            throw new IllegalArgumentException("Values must be non-negative.");
+        int hash = spread(key.hashCode());
+        int slot = hash & mask;
+        while (values[slot] != NO_VALUE) {
+            if (hashes[slot] == hash && keys[slot].equals(key)) {
+                values[slot] = value;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        hashes[slot] = hash;
+        values[slot] = value;
+        if (++size >= resizeAt) rehash(LongIntHashMap.grownCapacity(values.length, size));
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private void rehash(int capacity) {
+        String[] oldKeys = keys;
+        int[] oldHashes = hashes;
+        int[] oldValues = values;
+        allocate(capacity);
+        for (int i = 0; i < oldValues.length; i++) {
+            if (oldValues[i] == NO_VALUE) continue;
+            int slot = oldHashes[i] & mask;
+            while (values[slot] != NO_VALUE) slot = (slot + 1) & mask;
+            keys[slot] = oldKeys[i];
+            hashes[slot] = oldHashes[i];
+            values[slot] = oldValues[i];
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new String[capacity];
+        hashes = new int[capacity];
+        values = new int[capacity];
+        Arrays.fill(values, NO_VALUE);
+        mask = capacity - 1;
+        resizeAt = (int) (capacity * LOAD_FACTOR);
+    }
+
+    private static int spread(int h) {
+        h *= 0x9e3779b9;
+        return h ^ (h >>> 16);
+    }
+}
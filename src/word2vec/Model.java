@@ -1,17 +1,40 @@
 package word2vec;
 
+import word2vec.dist.ParameterClient;
 import word2vec.domain.HiddenNeuron;
 import word2vec.domain.Neuron;
 import word2vec.domain.WordNeuron;
+import word2vec.util.FloatFormat;
 import word2vec.util.Haffman;
+import word2vec.util.LossTracker;
 import word2vec.util.MapCount;
+import word2vec.util.Matrix;
+import word2vec.util.MatrixKernel;
+import word2vec.util.OffHeapMatrix;
+import word2vec.util.ProductQuantizer;
+import word2vec.util.Quantizer;
+import word2vec.util.ScalarQuantizer;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 import java.util.Map.Entry;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.IntFunction;
+import java.util.function.ToIntFunction;
 
 public class Model {
     private static final int DEFAULT_LAYER_SIZE = 200;
@@ -20,16 +43,72 @@ public class Model {
     private static final double DEFAULT_ALPHA = 0.025;
     
     private static final int EXP_TABLE_SIZE = 1000;
+    private static final int MIN_TABLE_SIZE = (int) 1e6;
+    private static final int MAX_TABLE_SIZE = (int) 1e8;
+    // the loss is tracked for one in 2^LOSS_SAMPLE_BITS center words
+    private static final int LOSS_SAMPLE_BITS = 4;
+    // vectors that product quantization codebooks are trained on, at most
+    private static final int CODEBOOK_SAMPLE = 1 << 14;
+    // untimed queries at the start of quantizationReport
+    private static final int REPORT_WARMUP = 20;
+    // rows formatted by one task of the text writer
+    private static final int TEXT_CHUNK_ROWS = 1024;
+    // first int of a file written by storeState
+    private static final int STATE_MAGIC = 0x4e325653;
 
     private Map<String, Neuron> word2neuron = new HashMap<>();
 
     private int layerSize, windowSize;
     private double sample, alpha, startingAlpha;
     private boolean isCBOW;
+    private boolean singlePrecision;
+    private boolean offHeap;
+    // file that syn0 is memory-mapped to, null to keep it in memory
+    private File mappedFile;
+
+    // input->hidden and hidden->output weights, one row per word / hidden neuron
+    private Matrix syn0, syn1;
+    // single-row scratch vectors for the hidden layer and its error
+    private Matrix neu1, neu1e;
+
+    // number of negative samples shared by the contexts of a center word,
+    // 0 to train with hierarchical softmax
+    private int negative;
+    // output weights for negative sampling, one row per word like syn0
+    private Matrix syn1neg;
+    // unigram^0.75 table of syn0 rows that negatives are drawn from
+    private int[] table;
+    // scratch blocks of the mini-batched skip-gram, row-major, in the precision of the weights:
+    // the float blocks for float32 weights, the precise ones for float64 weights, the others null
+    private float[] contextBlock, outputBlock, scores, contextGrad, outputGrad;
+    private double[] preciseContextBlock, preciseOutputBlock, preciseScores, preciseContextGrad, preciseOutputGrad;
+    private int[] contextRows, outputRows;
     
     private double[] expTable = new double[EXP_TABLE_SIZE];
     
-    private int trainWordsCount = 0;
+    private long trainWordsCount = 0;
+    // corpus size the word frequencies refer to, larger than trainWordsCount
+    // when this model only trains on one partition of the corpus
+    private long totalWordsCount = 0;
+
+    private Long seed;
+
+    private int iterations = 1;
+    // stop when an epoch improves the loss by less than this fraction, null to run all epochs
+    private Double earlyStop;
+    private LossTracker loss = new LossTracker();
+    private double lastEpochLoss;
+
+    // dense vocabulary used when training on integer walks, indexed by node id
+    private WordNeuron[] id2neuron;
+    // syn0 rows that have output weights; rows added by foldIn come after them
+    private int trainedRows;
+
+    private long nextRandom;
+    private long wordCount, lastWordCount, wordCountActual;
+    // told about every row of syn0 (matrix 0) and the output layer (matrix 1) before it changes,
+    // null when training alone
+    private ParameterClient client;
     
     private int MAX_EXP = 6;
     
@@ -53,61 +132,152 @@ public class Model {
     * @throws IOException
     */
     private void trainModel(File file) throws IOException {
-        BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(file)));
-        long nextRandom = 5;
-        int wordCount = 0;
-        int lastWordCount = 0;
-        int wordCountActual = 0;
-        String lineTxt;
-        while ((lineTxt = br.readLine()) != null) {
-            if (wordCount - lastWordCount > 10000) {
-                System.out.println("alpha:" + alpha + "\tProgress: "
-                        + (int) (wordCountActual / (double) (trainWordsCount + 1) * 100)
-                        + "%");
-                wordCountActual += wordCount - lastWordCount;
-                lastWordCount = wordCount;
-                alpha = startingAlpha * (1 - wordCountActual / (double) (trainWordsCount + 1));
-                if (alpha < startingAlpha * 0.0001) {
-                    alpha = startingAlpha * 0.0001;
+        startTraining();
+        for (int epoch = 1; epoch <= iterations; epoch++) {
+            long begin = System.nanoTime();
+            try (BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(file)))) {
+                String lineTxt;
+                while ((lineTxt = br.readLine()) != null) {
+                    String[] strs = lineTxt.split(" ");
+                    List<WordNeuron> sentence = new ArrayList<WordNeuron>();
+                    for (int i = 0; i < strs.length; i++) {
+                        Neuron entry = word2neuron.get(strs[i]);
+                        if (entry != null) sentence.add((WordNeuron) entry);
+                    }
+                    trainSentence(sentence, strs.length);
                 }
             }
-            String[] strs = lineTxt.split(" ");
-            wordCount += strs.length;
-            List<WordNeuron> sentence = new ArrayList<WordNeuron>();
-            for (int i = 0; i < strs.length; i++) {
-                Neuron entry = word2neuron.get(strs[i]);
-                if (entry == null) {
-                continue;
+            if (finishEpoch(epoch, begin, true)) break;
+        }
+        System.out.println("Vocab size: " + word2neuron.size());
+        System.out.println("Words in train file: " + trainWordsCount);
+        System.out.println("success train over!");
+    }
+
+    /**
+    * train model with walks over dense integer ids
+    * with a parameter client, the sync rounds are spread evenly over all
+    * epochs, and every epoch and every round runs because the workers must
+    * stay in step, also on a worker without walks
+    *
+    */
+    private void trainModel(List<int[]> walks, ParameterClient client) throws IOException {
+        startTraining();
+        List<WordNeuron> sentence = new ArrayList<WordNeuron>();
+        int rounds = client == null ? 0 : client.getRounds();
+        long total = (long) walks.size() * iterations, position = 0;
+        int synced = 0;
+        for (int epoch = 1; epoch <= iterations; epoch++) {
+            long begin = System.nanoTime();
+            for (int[] walk : walks) {
+                sentence.clear();
+                for (int id : walk) {
+                    sentence.add(id2neuron[id]);
                 }
-                // The subsampling randomly discards frequent words while keeping the
-                // ranking same
-                if (sample > 0) {
-                    double ran = (Math.sqrt(entry.freq / (sample * trainWordsCount)) + 1)
-                                * (sample * trainWordsCount) / entry.freq;
-                    nextRandom = nextRandom * 25214903917L + 11;
-                    if (ran < (nextRandom & 0xFFFF) / (double) 65536) {
-                        continue;
-                    }
+                trainSentence(sentence, walk.length);
+                position++;
+                while (synced < rounds && position >= total * (synced + 1) / rounds) {
+                    client.sync();
+                    synced++;
                 }
-                sentence.add((WordNeuron) entry);
             }
-            for (int index = 0; index < sentence.size(); index++) {
+            if (finishEpoch(epoch, begin, client == null)) break;
+        }
+        // a worker with few or no walks still takes part in every round
+        while (synced < rounds) {
+            client.sync();
+            synced++;
+        }
+        System.out.println("Vocab size: " + vocabSize());
+        System.out.println("Words in train corpus: " + trainWordsCount);
+        System.out.println("success train over!");
+    }
+
+    /**
+    * report the sampled loss of an epoch and decide whether to go on
+    * @param epoch the epoch that just ended, from 1
+    * @param beginNanos when the epoch started
+    * @param canStop whether training may end before the last epoch
+    * @return true if the loss improved by less than the early stopping threshold
+    */
+    private boolean finishEpoch(int epoch, long beginNanos, boolean canStop) {
+        double mean = loss.mean();
+        System.out.println(String.format("Epoch %d/%d: loss %.4f over %d sampled pairs in %.3fs",
+                epoch, iterations, mean, loss.count(), (System.nanoTime() - beginNanos) / 1e9));
+        double previous = lastEpochLoss;
+        lastEpochLoss = mean;
+        loss.reset();
+        if (!canStop || earlyStop == null || epoch == 1 || epoch == iterations
+                || Double.isNaN(previous) || Double.isNaN(mean)) {
+            return false;
+        }
+        double improvement = (previous - mean) / previous;
+        if (improvement >= earlyStop) {
+            return false;
+        }
+        System.out.println(String.format("Stopping early: the loss improved by %.2f%%, less than %.2f%%",
+                improvement * 100, earlyStop * 100));
+        return true;
+    }
+
+    private void startTraining() {
+        startingAlpha = alpha;
+        lastEpochLoss = Double.NaN;
+        loss.reset();
+        nextRandom = 5;
+        wordCount = 0;
+        lastWordCount = 0;
+        wordCountActual = 0;
+    }
+
+    /**
+    * update the learning rate, subsample and train one sentence
+    *
+    * @param words the known words of the sentence, in order
+    * @param length the number of tokens in the sentence, known or not
+    */
+    private void trainSentence(List<WordNeuron> words, int length) {
+        if (wordCount - lastWordCount > 10000) {
+            System.out.println("alpha:" + alpha + "\tProgress: "
+                    + (int) (wordCountActual / (double) (trainWordsCount * iterations + 1) * 100)
+                    + "%\tLoss: " + String.format("%.4f", loss.mean()));
+            wordCountActual += wordCount - lastWordCount;
+            lastWordCount = wordCount;
+            alpha = startingAlpha * (1 - wordCountActual / (double) (trainWordsCount * iterations + 1));
+            if (alpha < startingAlpha * 0.0001) {
+                alpha = startingAlpha * 0.0001;
+            }
+        }
+        wordCount += length;
+        List<WordNeuron> sentence = new ArrayList<WordNeuron>(words.size());
+        for (WordNeuron entry : words) {
+            // The subsampling randomly discards frequent words while keeping the
+            // ranking same
+            if (sample > 0) {
+                double ran = (Math.sqrt(entry.freq / (sample * totalWordsCount)) + 1)
+                            * (sample * totalWordsCount) / entry.freq;
                 nextRandom = nextRandom * 25214903917L + 11;
-                if (isCBOW) cbowGram(index, sentence, (int) nextRandom % windowSize);
-                else skipGram(index, sentence, (int) nextRandom % windowSize);
+                if (ran < (nextRandom & 0xFFFF) / (double) 65536) {
+                    continue;
+                }
             }
-
+            sentence.add(entry);
+        }
+        for (int index = 0; index < sentence.size(); index++) {
+            nextRandom = nextRandom * 25214903917L + 11;
+            int b = (int) Long.remainderUnsigned(nextRandom, windowSize);
+            boolean track = (nextRandom >>> (64 - LOSS_SAMPLE_BITS)) == 0;
+            if (negative > 0) skipGramBatch(index, sentence, b, track);
+            else if (isCBOW) cbowGram(index, sentence, b);
+            else skipGram(index, sentence, b, track);
         }
-        System.out.println("Vocab size: " + word2neuron.size());
-        System.out.println("Words in train file: " + trainWordsCount);
-        System.out.println("success train over!");
     }
     
     /**
     * skip gram train
-    *
+    * @param track add the loss of this center word to the loss tracker
     */
-    private void skipGram(int index, List<WordNeuron> sentence, int b) {
+    private void skipGram(int index, List<WordNeuron> sentence, int b, boolean track) {
         WordNeuron word = sentence.get(index);
         int a, c;
         for (a = b; a < windowSize * 2 + 1 - b; a++) {
@@ -119,17 +289,16 @@ public class Model {
                 continue;
             }
 
-            double[] neu1e = new double[layerSize];// 误差项
+            neu1e.clear(0);// 误差项
             // HIERARCHICAL SOFTMAX
             List<Neuron> neurons = word.neurons;
             WordNeuron we = sentence.get(c);
+            double pairLoss = 0;
             for (int i = 0; i < neurons.size(); i++) {
                 HiddenNeuron out = (HiddenNeuron) neurons.get(i);
-                double f = 0;
                 // Propagate hidden -> output
-                for (int j = 0; j < layerSize; j++) {
-                    f += we.syn0[j] * out.syn1[j];
-                }
+                double f = syn0.dot(we.index, syn1, out.index);
+                if (track) pairLoss -= logSigmoid(word.codeArr[i] == 0 ? f : -f);
                 if (f <= -MAX_EXP || f >= MAX_EXP) {
                     continue;
                 } else {
@@ -139,23 +308,100 @@ public class Model {
                 // 'g' is the gradient multiplied by the learning rate
                 double g = (1 - word.codeArr[i] - f) * alpha;
                 // Propagate errors output -> hidden
-                for (c = 0; c < layerSize; c++) {
-                    neu1e[c] += g * out.syn1[c];
-                }
+                neu1e.add(0, g, syn1, out.index);
                 // Model weights hidden -> output
-                for (c = 0; c < layerSize; c++) {
-                    out.syn1[c] += g * we.syn0[c];
-                }
+                if (client != null) client.touch(1, out.index);
+                syn1.add(out.index, g, syn0, we.index);
             }
 
             // Model weights input -> hidden
-            for (int j = 0; j < layerSize; j++) {
-                we.syn0[j] += neu1e[j];
-            }
+            if (client != null) client.touch(0, we.index);
+            syn0.add(we.index, 1, neu1e, 0);
+            if (track) loss.add(pairLoss, 1);
         }
     
     }
     
+    /**
+    * skip gram train with negative sampling, one mini-batch per center word
+    * all contexts of the center share the same negatives, so the scores and
+    * the gradients of the whole window are three small matrix products:
+    * S = C O^T, dC = G O and dO = G^T C, where C holds the context rows of
+    * syn0, O the center row and the negative rows of syn1neg, and G the
+    * gradients computed from S
+    * the products run in double when the weights are double precision
+    * @param track add the loss of this window to the loss tracker
+    */
+    private void skipGramBatch(int index, List<WordNeuron> sentence, int b, boolean track) {
+        WordNeuron word = sentence.get(index);
+        boolean precise = preciseScores != null;
+        int a, c;
+        int k = 0;
+        for (a = b; a < windowSize * 2 + 1 - b; a++) {
+            if (a == windowSize) {
+                continue;
+            }
+            c = index - windowSize + a;
+            if (c < 0 || c >= sentence.size()) {
+                continue;
+            }
+            contextRows[k] = sentence.get(c).index;
+            if (precise) syn0.getRow(contextRows[k], preciseContextBlock, k * layerSize);
+            else syn0.getRow(contextRows[k], contextBlock, k * layerSize);
+            k++;
+        }
+        if (k == 0) {
+            return;
+        }
+
+        // the center word is the positive output, followed by the shared negatives
+        int m = 0;
+        outputRows[m++] = word.index;
+        for (int d = 0; d < negative; d++) {
+            nextRandom = nextRandom * 25214903917L + 11;
+            int target = table[(int) Long.remainderUnsigned(nextRandom >>> 16, table.length)];
+            if (target == word.index) continue;
+            outputRows[m++] = target;
+        }
+        for (int j = 0; j < m; j++) {
+            if (precise) syn1neg.getRow(outputRows[j], preciseOutputBlock, j * layerSize);
+            else syn1neg.getRow(outputRows[j], outputBlock, j * layerSize);
+        }
+
+        if (precise) MatrixKernel.multiplyTransposed(preciseContextBlock, k, preciseOutputBlock, m, layerSize, preciseScores);
+        else MatrixKernel.multiplyTransposed(contextBlock, k, outputBlock, m, layerSize, scores);
+        double windowLoss = 0;
+        for (int i = 0; i < k; i++) {
+            for (int j = 0; j < m; j++) {
+                double f = precise ? preciseScores[i * m + j] : scores[i * m + j];
+                if (track) windowLoss -= logSigmoid(j == 0 ? f : -f);
+                double g = gradient(f, j == 0 ? 1 : 0, alpha);
+                if (precise) preciseScores[i * m + j] = g;
+                else scores[i * m + j] = (float) g;
+            }
+        }
+        if (track) loss.add(windowLoss, k);
+        // Propagate errors output -> hidden, and model weights hidden -> output
+        if (precise) {
+            MatrixKernel.multiply(preciseScores, k, m, preciseOutputBlock, layerSize, preciseContextGrad);
+            MatrixKernel.multiplyTransposedLeft(preciseScores, k, m, preciseContextBlock, layerSize, preciseOutputGrad);
+        } else {
+            MatrixKernel.multiply(scores, k, m, outputBlock, layerSize, contextGrad);
+            MatrixKernel.multiplyTransposedLeft(scores, k, m, contextBlock, layerSize, outputGrad);
+        }
+
+        for (int i = 0; i < k; i++) {
+            if (client != null) client.touch(0, contextRows[i]);
+            if (precise) syn0.addRow(contextRows[i], preciseContextGrad, i * layerSize);
+            else syn0.addRow(contextRows[i], contextGrad, i * layerSize);
+        }
+        for (int j = 0; j < m; j++) {
+            if (client != null) client.touch(1, outputRows[j]);
+            if (precise) syn1neg.addRow(outputRows[j], preciseOutputGrad, j * layerSize);
+            else syn1neg.addRow(outputRows[j], outputGrad, j * layerSize);
+        }
+    }
+
     /**
     * bag of words
     *
@@ -165,8 +411,8 @@ public class Model {
         int a, c;
 
         List<Neuron> neurons = word.neurons;
-        double[] neu1e = new double[layerSize];
-        double[] neu1 = new double[layerSize];
+        neu1e.clear(0);
+        neu1.clear(0);
         WordNeuron last_word;
 
         for (a = b; a < windowSize * 2 + 1 - b; a++)
@@ -176,15 +422,14 @@ public class Model {
                 if (c >= sentence.size()) continue;
                 last_word = sentence.get(c);
                 if (last_word == null) continue;
-                for (c = 0; c < layerSize; c++) neu1[c] += last_word.syn0[c];
+                neu1.add(0, 1, syn0, last_word.index);
             }
 
         // HIERARCHICAL SOFTMAX
         for (int d = 0; d < neurons.size(); d++) {
             HiddenNeuron out = (HiddenNeuron) neurons.get(d);
-            double f = 0;
             // Propagate hidden -> output
-            for (c = 0; c < layerSize; c++) f += neu1[c] * out.syn1[c];
+            double f = neu1.dot(0, syn1, out.index);
             if (f <= -MAX_EXP) continue;
             else if (f >= MAX_EXP) continue;
             else f = expTable[(int) ((f + MAX_EXP) * (EXP_TABLE_SIZE / MAX_EXP / 2))];
@@ -192,13 +437,10 @@ public class Model {
             // double g = (1 - word.codeArr[d] - f) * alpha;
             // double g = f*(1-f)*( word.codeArr[i] - f) * alpha;
             double g = f * (1 - f) * (word.codeArr[d] - f) * alpha;
-            for (c = 0; c < layerSize; c++) {
-                neu1e[c] += g * out.syn1[c];
-            }
+            neu1e.add(0, g, syn1, out.index);
             // Model weights hidden -> output
-            for (c = 0; c < layerSize; c++) {
-                out.syn1[c] += g * neu1[c];
-            }
+            if (client != null) client.touch(1, out.index);
+            syn1.add(out.index, g, neu1, 0);
         }
         for (a = b; a < windowSize * 2 + 1 - b; a++) {
             if (a != windowSize) {
@@ -207,7 +449,8 @@ public class Model {
                 if (c >= sentence.size()) continue;
                 last_word = sentence.get(c);
                 if (last_word == null) continue;
-                for (c = 0; c < layerSize; c++) last_word.syn0[c] += neu1e[c];
+                if (client != null) client.touch(0, last_word.index);
+                syn0.add(last_word.index, 1, neu1e, 0);
             }
 
         }
@@ -226,14 +469,52 @@ public class Model {
         while ((lineTxt = br.readLine()) != null) {
             String[] split = lineTxt.split(" ");
             trainWordsCount += split.length;
+            totalWordsCount += split.length;
             for (String string : split) {
                 mc.add(string);
             }
         }
         for (Entry<String, Integer> element : mc.get().entrySet()) {
             word2neuron.put(element.getKey(), new WordNeuron(element.getKey(),
-            (double) element.getValue() / mc.size(), layerSize));
+            (double) element.getValue() / mc.size()));
+        }
+    }
+
+    /**
+    *
+    * count id frequency in walks over integer ids
+    * @param walks the walks
+    * @param numIds the number of distinct ids, every id is below it
+    * @return the count of every id
+    */
+    private long[] countIdFreq(List<int[]> walks, int numIds) {
+        long[] counts = new long[numIds];
+        for (int[] walk : walks) {
+            for (int id : walk) {
+                counts[id]++;
+            }
+        }
+        return counts;
+    }
+
+    /**
+    *
+    * build the dense vocabulary from id counts
+    * ids that never occur get no neuron
+    * @param counts the count of every id
+    * @return the vocabulary in id order
+    */
+    private List<Neuron> buildIdVocab(long[] counts) {
+        List<Neuron> neurons = new ArrayList<>();
+        id2neuron = new WordNeuron[counts.length];
+        for (int id = 0; id < counts.length; id++) {
+            totalWordsCount += counts[id];
+            if (counts[id] > 0) {
+                id2neuron[id] = new WordNeuron(id, counts[id]);
+                neurons.add(id2neuron[id]);
+            }
         }
+        return neurons;
     }
     
     /**
@@ -252,32 +533,744 @@ public class Model {
     */
     public void learnFile(File file) throws IOException {
         countWordFreq(file);
-        new Haffman(layerSize).make(word2neuron.values());
+        buildNetwork(word2neuron.values());
+        trainModel(file);
+    }
 
-        for (Neuron neuron : word2neuron.values()) {
+    /**
+    *
+    * learn from walks over dense integer ids, without a text corpus
+    * @param walks the walks, every id in [0, numIds)
+    * @param numIds the size of the id space
+    */
+    public void learnWalks(List<int[]> walks, int numIds) {
+        learnWalks(walks, countIdFreq(walks, numIds));
+    }
+
+    /**
+    *
+    * learn from walks over dense integer ids whose id counts are already known,
+    * e.g. counted while the walks were generated, which saves a pass over the walks
+    * @param walks the walks, every id in [0, counts.length)
+    * @param counts the number of occurrences of every id in the walks
+    */
+    public void learnWalks(List<int[]> walks, long[] counts) {
+        try {
+            learnWalks(walks, counts, null);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // parameter client or mapped model file
+        }
+    }
+
+    /**
+    *
+    * learn from one partition of the walks, synchronizing the weights with
+    * the other workers of a data-parallel run through a parameter server
+    * the word counts are summed over all workers first, so that every worker
+    * builds the same tree and starts from the same weights
+    * @param walks this worker's walks, every id in [0, counts.length)
+    * @param counts the number of occurrences of every id in this worker's walks,
+    *               the id space must be the same on all workers
+    * @param client connection to the parameter server, null to train alone
+    * @throws IOException connection to the parameter server lost
+    */
+    public void learnWalks(List<int[]> walks, long[] counts, ParameterClient client) throws IOException {
+        trainWordsCount = 0;
+        for (long count : counts) {
+            trainWordsCount += count;
+        }
+        if (client != null) {
+            counts = client.exchangeCounts(counts);
+            seed = client.getSeed();
+        }
+        buildNetwork(buildIdVocab(counts));
+        if (client != null) client.attach(syn0, negative > 0 ? syn1neg : syn1);
+        this.client = client;
+        try {
+            trainModel(walks, client);
+        } finally {
+            this.client = null;
+        }
+    }
+
+    /**
+    *
+    * embed ids that have no vector yet, e.g. nodes added to the graph after
+    * training, into the space of the trained model
+    * only the syn0 rows of the new ids are trained, as contexts of the known
+    * ids around them, against the frozen output layer; the vectors of the
+    * known ids do not move, and pairs whose center has no output weights, i.e. was
+    * itself folded in, are skipped
+    * @param walks walks through the new ids, e.g. started from them, every id in [0, numIds)
+    * @param numIds the size of the grown id space, at least that of the trained model
+    * @return the number of ids that got a vector
+    */
+    public int foldIn(List<int[]> walks, int numIds) {
+        if (id2neuron == null)
+            throw new IllegalStateException("Fold-in needs a model learned from walks.");
+        if (mappedFile != null)
+            throw new IllegalStateException("Fold-in cannot grow a memory-mapped model.");
+        if (numIds < id2neuron.length)
+            throw new IllegalArgumentException("The id space cannot shrink.");
+        long[] counts = countIdFreq(walks, numIds);
+        id2neuron = Arrays.copyOf(id2neuron, numIds);
+        int firstRow = syn0.rows();
+        int row = firstRow;
+        for (int id = 0; id < numIds; id++) {
+            if (id2neuron[id] == null && counts[id] > 0) {
+                id2neuron[id] = new WordNeuron(id, counts[id]);
+                id2neuron[id].index = row++;
+            }
+        }
+        if (row == firstRow) {
+            return 0;
+        }
+
+        Matrix grown = newMatrix(row);
+        for (int r = 0; r < firstRow; r++) {
+            grown.add(r, 1, syn0, r);
+        }
+        Random random = seed == null ? new Random() : new Random(seed);
+        for (int r = firstRow; r < row; r++) {
+            for (int j = 0; j < layerSize; j++) {
+                grown.set(r, j, (random.nextDouble() - 0.5) / layerSize);
+            }
+        }
+        syn0 = grown;
+
+        Matrix grad = Matrix.create(1, layerSize, singlePrecision);
+        long total = 0, done = 0;
+        for (int[] walk : walks) {
+            total += walk.length;
+        }
+        for (int[] walk : walks) {
+            double rate = Math.max(startingAlpha * (1 - done / (double) (total + 1)), startingAlpha * 0.0001);
+            done += walk.length;
+            for (int index = 0; index < walk.length; index++) {
+                WordNeuron word = id2neuron[walk[index]];
+                if (word.index < firstRow) {
+                    continue;
+                }
+                nextRandom = nextRandom * 25214903917L + 11;
+                int b = (int) Long.remainderUnsigned(nextRandom, windowSize);
+                for (int a = b; a < windowSize * 2 + 1 - b; a++) {
+                    int c = index - windowSize + a;
+                    if (a == windowSize || c < 0 || c >= walk.length) {
+                        continue;
+                    }
+                    WordNeuron center = id2neuron[walk[c]];
+                    if (center.index >= trainedRows) {
+                        continue;
+                    }
+                    grad.clear(0);
+                    if (negative > 0) {
+                        for (int d = 0; d <= negative; d++) {
+                            int target = center.index;
+                            if (d > 0) {
+                                nextRandom = nextRandom * 25214903917L + 11;
+                                target = table[(int) Long.remainderUnsigned(nextRandom >>> 16, table.length)];
+                                if (target == center.index) continue;
+                            }
+                            double g = gradient(syn0.dot(word.index, syn1neg, target), d == 0 ? 1 : 0, rate);
+                            grad.add(0, g, syn1neg, target);
+                        }
+                    } else {
+                        List<Neuron> neurons = center.neurons;
+                        for (int i = 0; i < neurons.size(); i++) {
+                            HiddenNeuron out = (HiddenNeuron) neurons.get(i);
+                            double f = syn0.dot(word.index, syn1, out.index);
+                            if (f <= -MAX_EXP || f >= MAX_EXP) continue;
+                            grad.add(0, gradient(f, 1 - center.codeArr[i], rate), syn1, out.index);
+                        }
+                    }
+                    syn0.add(word.index, 1, grad, 0);
+                }
+            }
+        }
+        return row - firstRow;
+    }
+
+    /**
+    * log(1 / (1 + e^-x)), without overflow for large |x|
+    */
+    private static double logSigmoid(double x) {
+        return x >= 0 ? -Math.log1p(Math.exp(-x)) : x - Math.log1p(Math.exp(x));
+    }
+
+    /**
+    * the logistic loss gradient of one output, multiplied by the learning rate
+    * @param f the score of the output
+    * @param label 1 for the target, 0 otherwise
+    * @param rate the learning rate
+    */
+    private double gradient(double f, int label, double rate) {
+        if (f > MAX_EXP) return (label - 1) * rate;
+        if (f < -MAX_EXP) return label * rate;
+        return (label - expTable[(int) ((f + MAX_EXP) * (EXP_TABLE_SIZE / MAX_EXP / 2))]) * rate;
+    }
+
+    /**
+    *
+    * build the Huffman tree over the vocabulary and allocate the weights
+    * @param words the vocabulary, rows of syn0 are assigned in this order
+    */
+    private void buildNetwork(Collection<Neuron> words) throws IOException {
+        if (negative > 0 && isCBOW)
+            throw new IllegalStateException("Negative sampling is only implemented for skip-gram.");
+        int row = 0;
+        for (Neuron neuron : words) {
+            ((WordNeuron) neuron).index = row++;
+        }
+        trainedRows = row;
+        syn0 = mappedFile != null
+                ? OffHeapMatrix.map(mappedFile, words.size(), layerSize)
+                : newMatrix(words.size());
+        syn0.randomize(seed == null ? new Random() : new Random(seed));
+        if (negative > 0) {
+            syn1neg = newMatrix(words.size());
+            createTable(words);
+            int maxContexts = windowSize * 2;
+            int maxOutputs = negative + 1;
+            contextRows = new int[maxContexts];
+            outputRows = new int[maxOutputs];
+            if (syn0.bytesPerValue() == Double.BYTES && syn1neg.bytesPerValue() == Double.BYTES) {
+                preciseContextBlock = new double[maxContexts * layerSize];
+                preciseContextGrad = new double[maxContexts * layerSize];
+                preciseOutputBlock = new double[maxOutputs * layerSize];
+                preciseOutputGrad = new double[maxOutputs * layerSize];
+                preciseScores = new double[maxContexts * maxOutputs];
+            } else {
+                contextBlock = new float[maxContexts * layerSize];
+                contextGrad = new float[maxContexts * layerSize];
+                outputBlock = new float[maxOutputs * layerSize];
+                outputGrad = new float[maxOutputs * layerSize];
+                scores = new float[maxContexts * maxOutputs];
+            }
+        } else {
+            syn1 = newMatrix(buildTree(words));
+            neu1 = Matrix.create(1, layerSize, singlePrecision);
+            neu1e = Matrix.create(1, layerSize, singlePrecision);
+        }
+    }
+
+    /**
+    * build the Huffman tree and the paths of the words, the same tree for the same
+    * frequencies in the same order
+    * @return the number of hidden neurons
+    */
+    private int buildTree(Collection<Neuron> words) {
+        int hiddenCount = new Haffman().make(words);
+        for (Neuron neuron : words) {
             ((WordNeuron) neuron).makeNeurons();
         }
+        return hiddenCount;
+    }
 
-        trainModel(file);
+    private Matrix newMatrix(int rows) {
+        return offHeap
+                ? OffHeapMatrix.allocate(rows, layerSize)
+                : Matrix.create(rows, layerSize, singlePrecision);
+    }
+
+    /**
+    * fill the table that negatives are sampled from, each word taking
+    * a share proportional to freq^0.75
+    * @param words the vocabulary in syn0 row order
+    */
+    private void createTable(Collection<Neuron> words) {
+        table = new int[(int) Math.max(MIN_TABLE_SIZE, Math.min(MAX_TABLE_SIZE, 100L * words.size()))];
+        double power = 0.75;
+        double trainWordsPow = 0;
+        for (Neuron neuron : words) {
+            trainWordsPow += Math.pow(neuron.freq, power);
+        }
+        int i = 0;
+        double cumulative = 0;
+        for (Neuron neuron : words) {
+            cumulative += Math.pow(neuron.freq, power) / trainWordsPow;
+            int end = (int) Math.min(table.length, Math.round(cumulative * table.length));
+            int row = ((WordNeuron) neuron).index;
+            while (i < end) table[i++] = row;
+        }
+        // rounding may leave a few slots at the end, give them to the last word
+        while (i < table.length) table[i++] = words.size() - 1;
+    }
+
+    /**
+    *
+    * train and store the weights as float32 instead of float64,
+    * which halves the memory used by syn0 and syn1
+    * @param singlePrecision true for float32 weights
+    */
+    public void setSinglePrecision(boolean singlePrecision) {
+        this.singlePrecision = singlePrecision;
+    }
+
+    /**
+    *
+    * keep the weights outside the Java heap, in float32
+    * @param offHeap true for direct buffers instead of arrays
+    */
+    public void setOffHeap(boolean offHeap) {
+        this.offHeap = offHeap;
+    }
+
+    /**
+    *
+    * memory-map syn0 to a file instead of allocating it, which implies off-heap
+    * float32 storage; the trained model is then persisted by storeMappedModel
+    * instead of being rewritten by storeModel
+    * @param file the file to map, replaced at the start of training
+    */
+    public void setMappedFile(File file) {
+        this.mappedFile = file;
+        if (file != null) this.offHeap = true;
+    }
+
+    /**
+    *
+    * seed the weight initialization
+    * @param seed the seed
+    */
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+    *
+    * train skip-gram with negative sampling instead of hierarchical softmax;
+    * the contexts of each center word form one mini-batch that shares the
+    * same negatives, and is updated with small matrix-matrix products at the
+    * precision of the weights
+    * @param negative number of negative samples per center word, 0 for hierarchical softmax
+    */
+    public void setNegative(int negative) {
+        if (negative < 0)
+            throw new IllegalArgumentException("Number of negative samples must not be negative.");
+        this.negative = negative;
+    }
+
+    /**
+    *
+    * pass over the training data several times, decaying the learning rate
+    * over all passes
+    * @param iterations number of epochs
+    */
+    public void setIterations(int iterations) {
+        if (iterations <= 0)
+            throw new IllegalArgumentException("Number of iterations must be positive.");
+        this.iterations = iterations;
+    }
+
+    /**
+    *
+    * end training after an epoch that lowers the sampled loss by less than
+    * the given fraction of the previous epoch's loss; the last epoch always
+    * ends training anyway, and data-parallel runs always run every epoch
+    * @param minImprovement relative loss improvement per epoch, e.g. 0.01
+    */
+    public void setEarlyStop(double minImprovement) {
+        if (minImprovement < 0)
+            throw new IllegalArgumentException("Early stopping threshold must not be negative.");
+        this.earlyStop = minImprovement;
+    }
+
+    private int vocabSize() {
+        if (id2neuron == null) return word2neuron.size();
+        int size = 0;
+        for (WordNeuron neuron : id2neuron) {
+            if (neuron != null) size++;
+        }
+        return size;
     }
     
     public void storeModel(File file) {
+        String[] words = new String[word2neuron.size()];
+        int[] rows = new int[words.length];
+        int k = 0;
+        for (Entry<String, Neuron> element : word2neuron.entrySet()) {
+            words[k] = element.getKey();
+            rows[k++] = ((WordNeuron) element.getValue()).index;
+        }
         try {
-            FileWriter fw = new FileWriter(file);
-            fw.write(word2neuron.size()+" "+layerSize+"\n");
-            double[] syn0;
+            writeText(file, rows, i -> words[i]);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+    *
+    * persist a model whose syn0 is memory-mapped: the dirty pages are forced
+    * to the mapped file, and the names of its rows go to a sidecar file
+    * named like the mapped file with an ".ids" suffix, one name per line
+    * @param names maps a dense id to its name, ignored for models learned from text
+    * @throws IOException the sidecar file cannot be written
+    */
+    public void storeMappedModel(IntFunction<String> names) throws IOException {
+        if (mappedFile == null)
+            throw new IllegalStateException("syn0 is not memory-mapped.");
+        String[] rowNames = new String[syn0.rows()];
+        if (id2neuron != null) {
+            for (int id = 0; id < id2neuron.length; id++) {
+                if (id2neuron[id] != null) rowNames[id2neuron[id].index] = names.apply(id);
+            }
+        } else {
             for (Entry<String, Neuron> element : word2neuron.entrySet()) {
-                fw.write(element.getKey()+" ");
-                syn0 = ((WordNeuron) element.getValue()).syn0;
-                for (double d : syn0) {
-                    fw.write(((Double) d).floatValue()+" ");
-                }
-                fw.write("\n");
+                rowNames[((WordNeuron) element.getValue()).index] = element.getKey();
+            }
+        }
+        try (Writer fw = new BufferedWriter(new FileWriter(mappedFile.getPath() + ".ids"))) {
+            for (String name : rowNames) {
+                fw.write(name + "\n");
             }
-            fw.flush();
-            fw.close();
+        }
+        ((OffHeapMatrix) syn0).flush();
+    }
+
+    /**
+    *
+    * store everything foldIn needs from a model trained by learnWalks, folded in or not:
+    * the vocabulary with its counts, syn0 and the output layer, in the precision they
+    * were trained in; loadState reads the file back
+    * @param file the output file
+    * @param names maps a dense id to its name, which is how loadState finds the id again
+    * @throws IOException the file cannot be written
+    */
+    public void storeState(File file, IntFunction<String> names) throws IOException {
+        if (id2neuron == null)
+            throw new IllegalStateException("Only a model learned from walks can be stored.");
+        Matrix output = negative > 0 ? syn1neg : syn1;
+        String[] rowNames = new String[syn0.rows()];
+        long[] rowCounts = new long[syn0.rows()];
+        for (int id = 0; id < id2neuron.length; id++) {
+            if (id2neuron[id] == null) continue;
+            rowNames[id2neuron[id].index] = names.apply(id);
+            rowCounts[id2neuron[id].index] = (long) id2neuron[id].freq;
+        }
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16))) {
+            out.writeInt(STATE_MAGIC);
+            out.writeInt(layerSize);
+            out.writeInt(windowSize);
+            out.writeInt(negative);
+            out.writeBoolean(syn0.bytesPerValue() == Float.BYTES);
+            out.writeInt(syn0.rows());
+            out.writeInt(trainedRows);
+            out.writeInt(output.rows());
+            out.writeLong(totalWordsCount);
+            for (int row = 0; row < rowNames.length; row++) {
+                out.writeUTF(rowNames[row]);
+                out.writeLong(rowCounts[row]);
+            }
+            writeValues(out, syn0);
+            writeValues(out, output);
+        }
+    }
+
+    /**
+    *
+    * restore a model written by storeState instead of learning one, so that foldIn can run
+    * in a later process; the layer size, window size and number of negative samples come
+    * from the file, the storage options from this model
+    * @param file the file written by storeState
+    * @param ids maps a stored name to the dense id it has now, -1 if unknown; ids may
+    *            differ from those of the run that stored the model
+    * @param numIds the size of the id space, every id is below it
+    * @throws IOException the file is not a stored model, or names a node that has no id
+    */
+    public void loadState(File file, ToIntFunction<String> ids, int numIds) throws IOException {
+        if (mappedFile != null)
+            throw new IllegalStateException("A stored model cannot be loaded into a memory-mapped file.");
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+            if (in.readInt() != STATE_MAGIC)
+                throw new IOException(file + " is not a model stored by storeState");
+            layerSize = in.readInt();
+            windowSize = in.readInt();
+            negative = in.readInt();
+            boolean storedSingle = in.readBoolean();
+            int rows = in.readInt();
+            trainedRows = in.readInt();
+            int outputSize = in.readInt();
+            if (trainedRows < 0 || trainedRows > rows)
+                throw new IOException(file + " has " + trainedRows + " trained rows out of " + rows);
+            totalWordsCount = in.readLong();
+            id2neuron = new WordNeuron[numIds];
+            List<Neuron> words = new ArrayList<>(rows);
+            for (int row = 0; row < rows; row++) {
+                String name = in.readUTF();
+                long count = in.readLong();
+                int id = ids.applyAsInt(name);
+                if (id < 0 || id >= numIds)
+                    throw new IOException("Node " + name + " of the stored model is not in the graph");
+                if (id2neuron[id] != null)
+                    throw new IOException("Node " + name + " is stored twice");
+                id2neuron[id] = new WordNeuron(id, count);
+                id2neuron[id].index = row;
+                words.add(id2neuron[id]);
+            }
+            // rebuilt from the stored counts in row order, which gives the tree or table of training
+            List<Neuron> trained = words.subList(0, trainedRows);
+            if (negative > 0) {
+                createTable(trained);
+            } else if (buildTree(trained) != outputSize) {
+                throw new IOException("The Huffman tree of " + file + " does not match its output layer");
+            }
+            syn0 = newMatrix(rows);
+            readValues(in, syn0, storedSingle);
+            Matrix output = newMatrix(outputSize);
+            readValues(in, output, storedSingle);
+            if (negative > 0) syn1neg = output;
+            else syn1 = output;
+        }
+        trainWordsCount = 0;
+        startTraining();
+    }
+
+    private static void writeValues(DataOutputStream out, Matrix m) throws IOException {
+        boolean single = m.bytesPerValue() == Float.BYTES;
+        for (int row = 0; row < m.rows(); row++) {
+            for (int j = 0; j < m.cols(); j++) {
+                if (single) out.writeFloat((float) m.get(row, j));
+                else out.writeDouble(m.get(row, j));
+            }
+        }
+    }
+
+    private static void readValues(DataInputStream in, Matrix m, boolean single) throws IOException {
+        for (int row = 0; row < m.rows(); row++) {
+            for (int j = 0; j < m.cols(); j++) {
+                m.set(row, j, single ? in.readFloat() : in.readDouble());
+            }
+        }
+    }
+
+    /**
+    * @return whether an id of a model learned from walks or restored by loadState has a vector
+    */
+    public boolean hasVector(int id) {
+        return id2neuron != null && id < id2neuron.length && id2neuron[id] != null;
+    }
+
+    /**
+    *
+    * store a model trained by learnWalks, mapping ids back to their external names
+    * @param file the output file
+    * @param names maps a dense id to the name written in the output
+    */
+    public void storeModel(File file, IntFunction<String> names) {
+        int[] ids = new int[id2neuron.length];
+        for (int id = 0; id < ids.length; id++) ids[id] = id;
+        storeModel(file, names, ids);
+    }
+
+    /**
+    *
+    * store the vectors of some of the ids of a model trained by learnWalks
+    * @param file the output file
+    * @param names maps a dense id to the name written in the output
+    * @param ids the ids to write, in this order; ids that got no vector are skipped
+    */
+    public void storeModel(File file, IntFunction<String> names, int[] ids) {
+        int[] rows = storedRows(ids);
+        int[] stored = new int[rows.length];
+        int k = 0;
+        for (int id : ids) {
+            if (id2neuron[id] != null) stored[k++] = id;
+        }
+        try {
+            writeText(file, rows, i -> names.apply(stored[i]));
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
+
+    /**
+    *
+    * write rows of syn0 in the text format, one "name v1 v2 ... " line per row after a "count size" header;
+    * chunks of rows are formatted in parallel and written in order
+    * @param rows the syn0 rows to write, in this order
+    * @param names the name of the i-th row written
+    */
+    private void writeText(File file, int[] rows, IntFunction<String> names) throws IOException {
+        int threads = Runtime.getRuntime().availableProcessors();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            writeFully(channel, ByteBuffer.wrap((rows.length + " " + layerSize + "\n").getBytes(StandardCharsets.UTF_8)));
+            // a bounded window of chunks in flight keeps the memory independent of the model size
+            ArrayDeque<Future<ByteBuffer>> pending = new ArrayDeque<>();
+            for (int from = 0; from < rows.length; from += TEXT_CHUNK_ROWS) {
+                int begin = from, end = Math.min(rows.length, from + TEXT_CHUNK_ROWS);
+                pending.add(pool.submit(() -> formatRows(rows, names, begin, end)));
+                if (pending.size() >= 2 * threads) writeFully(channel, pending.poll().get());
+            }
+            while (!pending.isEmpty()) writeFully(channel, pending.poll().get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while writing " + file);
+        } catch (ExecutionException e) {
+            throw new IOException("Cannot format " + file, e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private ByteBuffer formatRows(int[] rows, IntFunction<String> names, int begin, int end) {
+        float[] vector = new float[layerSize];
+        byte[] text = new byte[(end - begin) * (layerSize * (FloatFormat.MAX_LENGTH + 1) + 32)];
+        int pos = 0;
+        for (int i = begin; i < end; i++) {
+            byte[] name = names.apply(i).getBytes(StandardCharsets.UTF_8);
+            int lineBytes = name.length + 2 + layerSize * (FloatFormat.MAX_LENGTH + 1);
+            if (pos + lineBytes > text.length) text = Arrays.copyOf(text, Math.max(text.length * 2, pos + lineBytes));
+            System.arraycopy(name, 0, text, pos, name.length);
+            pos += name.length;
+            text[pos++] = ' ';
+            syn0.getRow(rows[i], vector, 0);
+            for (float value : vector) {
+                pos = FloatFormat.format(value, text, pos);
+                text[pos++] = ' ';
+            }
+            text[pos++] = '\n';
+        }
+        return ByteBuffer.wrap(text, 0, pos);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) channel.write(buffer);
+    }
+
+    /**
+    *
+    * store some of the vectors of a model trained by learnWalks as int8 codes with one scale per vector,
+    * about 4x smaller than float32; Word2VEC.loadQuantizedModel reads the file
+    * @param file the output file
+    * @param names maps a dense id to the name written in the output
+    * @param ids the ids to write, in this order; ids that got no vector are skipped
+    */
+    public void storeInt8Model(File file, IntFunction<String> names, int[] ids) throws IOException {
+        storeQuantizedModel(file, names, ids, new ScalarQuantizer(layerSize));
+    }
+
+    /**
+    *
+    * store some of the vectors of a model trained by learnWalks as product quantization codes,
+    * one byte per subspace, with codebooks trained on a sample of the vectors;
+    * Word2VEC.loadQuantizedModel reads the file
+    * @param file the output file
+    * @param names maps a dense id to the name written in the output
+    * @param ids the ids to write, in this order; ids that got no vector are skipped
+    * @param subspaces the number of subspaces, a divisor of the layer size
+    */
+    public void storeProductQuantizedModel(File file, IntFunction<String> names, int[] ids, int subspaces)
+            throws IOException {
+        int[] rows = storedRows(ids);
+        int samples = Math.min(rows.length, CODEBOOK_SAMPLE);
+        float[] sample = new float[samples * layerSize];
+        for (int k = 0; k < samples; k++) {
+            // evenly spaced over the stored rows
+            syn0.getRow(rows[(int) ((long) k * rows.length / samples)], sample, k * layerSize);
+        }
+        storeQuantizedModel(file, names, ids,
+                ProductQuantizer.train(sample, layerSize, subspaces, seed == null ? 0 : seed));
+    }
+
+    private void storeQuantizedModel(File file, IntFunction<String> names, int[] ids, Quantizer quantizer)
+            throws IOException {
+        int[] rows = storedRows(ids);
+        float[] vector = new float[layerSize];
+        byte[] codes = new byte[quantizer.codeBytes()];
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16))) {
+            out.writeInt(Word2VEC.QUANTIZED_MAGIC);
+            out.writeInt(rows.length);
+            quantizer.write(out);
+            int k = 0;
+            for (int id : ids) {
+                if (id2neuron[id] == null) continue;
+                syn0.getRow(rows[k++], vector, 0);
+                float norm = 0;
+                for (float value : vector) norm += value * value;
+                out.writeUTF(names.apply(id));
+                out.writeFloat(quantizer.encode(vector, codes, 0));
+                out.writeFloat((float) Math.sqrt(norm));
+                out.write(codes);
+            }
+        }
+    }
+
+    /**
+    *
+    * compare nearest-neighbor search on a quantized file written by this model against exact search
+    * over the trained vectors
+    * @param file the file written by storeInt8Model or storeProductQuantizedModel
+    * @param ids the ids it was written with
+    * @param queries the number of stored vectors used as queries
+    * @param k the number of neighbors per query
+    * @return one line with the size per vector, recall@k and the time per query of both searches,
+    * or saying why there is no report when fewer than 2 vectors were stored
+    */
+    public String quantizationReport(File file, int[] ids, int queries, int k) throws IOException {
+        Word2VEC reader = new Word2VEC();
+        reader.loadQuantizedModel(file.getPath());
+        int[] rows = storedRows(ids);
+        int n = rows.length;
+        if (n < 2) {
+            return file.getPath() + ": no recall report, a search needs at least 2 vectors and there are " + n;
+        }
+        k = Math.min(k, n - 1);
+        double[] norms = new double[n];
+        for (int r = 0; r < n; r++) norms[r] = Math.sqrt(syn0.dot(rows[r], syn0, rows[r]));
+
+        Random random = seed == null ? new Random() : new Random(seed);
+        float[] exact = new float[n], approximate = new float[n];
+        float[] query = new float[layerSize];
+        long exactNanos = 0, codeNanos = 0;
+        int hits = 0;
+        // the first queries only warm up both searches
+        for (int i = -REPORT_WARMUP; i < queries; i++) {
+            int q = random.nextInt(n);
+            long begin = System.nanoTime();
+            for (int r = 0; r < n; r++) {
+                double norm = norms[q] * norms[r];
+                exact[r] = norm == 0 ? 0 : (float) (syn0.dot(rows[q], syn0, rows[r]) / norm);
+            }
+            exact[q] = Float.NEGATIVE_INFINITY;
+            int[] truth = Word2VEC.top(exact, k);
+            long middle = System.nanoTime();
+            syn0.getRow(rows[q], query, 0);
+            reader.scores(query, true, approximate);
+            approximate[q] = Float.NEGATIVE_INFINITY;
+            int[] found = Word2VEC.top(approximate, k);
+            if (i < 0) continue;
+            codeNanos += System.nanoTime() - middle;
+            exactNanos += middle - begin;
+            Arrays.sort(found);
+            for (int row : truth) {
+                if (Arrays.binarySearch(found, row) >= 0) hits++;
+            }
+        }
+        int storedBytes = reader.codeBytes() + 2 * Float.BYTES;
+        return String.format("%s: %d bytes per vector against %d for float32 (%.1fx smaller), "
+                        + "recall@%d %.3f over %d queries, exact search %.2f ms/query, code search %.2f ms/query",
+                file.getPath(), storedBytes, layerSize * Float.BYTES, layerSize * Float.BYTES / (double) storedBytes,
+                k, hits / (double) (queries * k), queries, exactNanos / 1e6 / queries, codeNanos / 1e6 / queries);
+    }
+
+    /**
+    * @return the syn0 rows of the ids that have a vector, in the order of ids
+    */
+    private int[] storedRows(int[] ids) {
+        if (id2neuron == null)
+            throw new IllegalStateException("Quantized output needs a model learned from walks.");
+        int count = 0;
+        for (int id : ids) {
+            if (id2neuron[id] != null) count++;
+        }
+        int[] rows = new int[count];
+        int k = 0;
+        for (int id : ids) {
+            if (id2neuron[id] != null) rows[k++] = id2neuron[id].index;
+        }
+        return rows;
+    }
 }
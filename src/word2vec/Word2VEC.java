@@ -1,14 +1,50 @@
 package word2vec;
 
+import word2vec.util.FloatFormat;
+import word2vec.util.FloatMatrix;
+import word2vec.util.Matrix;
+import word2vec.util.Quantizer;
+
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class Word2VEC {
 
     private static final int MAX_SIZE = 50;
 
+	/* first int of a file written by Model.storeQuantizedModel */
+	static final int QUANTIZED_MAGIC = 0x4e325651;
+	/* upper bound on the code bytes in one block of a quantized model */
+	private static final int MAX_BLOCK_BYTES = 1 << 27;
+	/* bytes of a text model parsed by one task; a line may not be longer */
+	private static final int TEXT_CHUNK_BYTES = 1 << 24;
+
 	private HashMap<String, float[]> wordMap = new HashMap<>();
     private int words, size;
+
+	// a quantized model: the codes of row r are at codeBlocks[r >> blockBits], offset (r & blockMask) * codeBytes
+	private Quantizer quantizer;
+	private byte[][] codeBlocks;
+	private int blockBits, blockMask;
+	private float[] scales, norms;
+	// a text model, one row per word
+	private Matrix vectors;
+	// the words of the rows of the last loaded quantized or text model
+	private String[] names;
+	private HashMap<String, Integer> rowOf;
     public void loadGoogleModel(String path) throws IOException {
 		DataInputStream dis = null;
 		BufferedInputStream bis = null;
@@ -47,6 +83,342 @@ public class Word2VEC {
 
 
 
+	/**
+	 * load a text model as written by Model.storeModel: a "words size" line, then
+	 * one "word v1 v2 ..." line per word. The file is memory-mapped and parsed in
+	 * parallel chunks into one float matrix; unlike loadGoogleModel, the vectors
+	 * keep their values
+	 * @param path the text model file
+	 * @throws IOException file not found or malformed
+	 */
+	public void loadTextModel(String path) throws IOException {
+		try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+			long fileSize = channel.size();
+			ByteBuffer head = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(fileSize, 1 << 10));
+			int eol = 0;
+			while (eol < head.limit() && head.get(eol) != '\n') eol++;
+			byte[] header = new byte[eol];
+			head.get(header);
+			String[] fields = new String(header, StandardCharsets.UTF_8).trim().split("\\s+");
+			try {
+				words = Integer.parseInt(fields[0]);
+				size = Integer.parseInt(fields[1]);
+			} catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+				throw new IOException(path + " does not start with a \"words size\" line");
+			}
+			long dataStart = Math.min(fileSize, eol + 1L);
+			int chunks = (int) ((fileSize - dataStart + TEXT_CHUNK_BYTES - 1) / TEXT_CHUNK_BYTES);
+
+			ExecutorService pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+			try {
+				// first the rows of every chunk, so that the chunks know where their rows go
+				List<Callable<Integer>> counts = new ArrayList<>();
+				for (int c = 0; c < chunks; c++) {
+					long begin = dataStart + (long) c * TEXT_CHUNK_BYTES;
+					long end = Math.min(fileSize, begin + TEXT_CHUNK_BYTES);
+					counts.add(() -> parseChunk(channel, dataStart, begin, end, fileSize, -1));
+				}
+				int[] firstRows = new int[chunks + 1];
+				List<Future<Integer>> counted = pool.invokeAll(counts);
+				for (int c = 0; c < chunks; c++) firstRows[c + 1] = firstRows[c] + counted.get(c).get();
+				if (firstRows[chunks] != words)
+					throw new IOException(path + " has " + firstRows[chunks] + " vectors, its header says " + words);
+
+				vectors = new FloatMatrix(words, size);
+				names = new String[words];
+				List<Callable<Integer>> parses = new ArrayList<>();
+				for (int c = 0; c < chunks; c++) {
+					long begin = dataStart + (long) c * TEXT_CHUNK_BYTES;
+					long end = Math.min(fileSize, begin + TEXT_CHUNK_BYTES);
+					int firstRow = firstRows[c];
+					parses.add(() -> parseChunk(channel, dataStart, begin, end, fileSize, firstRow));
+				}
+				for (Future<Integer> parsed : pool.invokeAll(parses)) parsed.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while loading " + path);
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+				throw new IOException("Cannot load " + path, e.getCause());
+			} finally {
+				pool.shutdownNow();
+			}
+		}
+		rowOf = new HashMap<>(words * 4 / 3 + 1);
+		for (int row = 0; row < words; row++) rowOf.put(names[row], row);
+	}
+
+	/**
+	 * count or parse the non-blank lines that start in [begin, end)
+	 * @param firstRow the row of the first line, -1 to only count the lines
+	 * @return the number of lines
+	 */
+	private int parseChunk(FileChannel channel, long dataStart, long begin, long end, long fileSize, int firstRow)
+			throws IOException {
+		// one byte before the chunk tells whether a line starts at begin, and the last line may run past end
+		long from = begin == dataStart ? begin : begin - 1;
+		long to = firstRow < 0 ? end : Math.min(fileSize, end + TEXT_CHUNK_BYTES);
+		// parsing from an array is much faster than through the buffer
+		byte[] text = new byte[(int) (to - from)];
+		channel.map(FileChannel.MapMode.READ_ONLY, from, to - from).get(text);
+		int limit = text.length, stop = (int) (end - from);
+		int lines = 0;
+		float[] vector = new float[size];
+		for (int i = (int) (begin - from); i < stop; i++) {
+			if (i > 0 && text[i - 1] != '\n') continue;
+			byte first = text[i];
+			if (first == '\n' || first == '\r') continue;
+			if (firstRow < 0) {
+				lines++;
+				continue;
+			}
+			int lineEnd = i;
+			while (lineEnd < limit && text[lineEnd] != '\n') lineEnd++;
+			if (lineEnd == limit && to < fileSize)
+				throw new IOException("A line longer than " + TEXT_CHUNK_BYTES + " bytes at offset " + (from + i));
+			int p = i;
+			while (p < lineEnd && !isSpace(text[p])) p++;
+			byte[] name = Arrays.copyOfRange(text, i, p);
+			for (int j = 0; j < size; j++) {
+				while (p < lineEnd && isSpace(text[p])) p++;
+				int q = p;
+				while (q < lineEnd && !isSpace(text[q])) q++;
+				if (q == p)
+					throw new IOException("Expected " + size + " values for " + new String(name, StandardCharsets.UTF_8)
+							+ ", found " + j);
+				try {
+					vector[j] = FloatFormat.parse(text, p, q);
+				} catch (NumberFormatException e) {
+					throw new IOException("Malformed value for " + new String(name, StandardCharsets.UTF_8), e);
+				}
+				p = q;
+			}
+			while (p < lineEnd && isSpace(text[p])) p++;
+			if (p < lineEnd)
+				throw new IOException("More than " + size + " values for " + new String(name, StandardCharsets.UTF_8));
+			names[firstRow + lines] = new String(name, StandardCharsets.UTF_8);
+			vectors.setRow(firstRow + lines, vector, 0);
+			lines++;
+			i = lineEnd;
+		}
+		return lines;
+	}
+
+	private static boolean isSpace(byte b) {
+		return b == ' ' || b == '\t' || b == '\n' || b == '\r';
+	}
+
+	/**
+	 * @return the vectors of the text model, row r holding the vector of word(r)
+	 */
+	public Matrix getVectors() {
+		return vectors;
+	}
+
+	/**
+	 * load a model written by Model.storeQuantizedModel; the vectors stay
+	 * encoded and are scored on their codes
+	 * @param path the quantized model file
+	 * @throws IOException file not found or not a quantized model
+	 */
+	public void loadQuantizedModel(String path) throws IOException {
+		try (DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(path), 1 << 16))) {
+			if (dis.readInt() != QUANTIZED_MAGIC)
+				throw new IOException(path + " is not a quantized model");
+			words = dis.readInt();
+			quantizer = Quantizer.read(dis);
+			size = quantizer.dim();
+			int codeBytes = quantizer.codeBytes();
+			blockBits = Integer.numberOfTrailingZeros(Integer.highestOneBit(Math.max(1, MAX_BLOCK_BYTES / codeBytes)));
+			blockMask = (1 << blockBits) - 1;
+			codeBlocks = new byte[(int) (((long) words + blockMask) >> blockBits)][];
+			for (int b = 0; b < codeBlocks.length; b++) {
+				codeBlocks[b] = new byte[Math.min(blockMask + 1, words - (b << blockBits)) * codeBytes];
+			}
+			scales = new float[words];
+			norms = new float[words];
+			names = new String[words];
+			rowOf = new HashMap<>(words * 4 / 3 + 1);
+			for (int row = 0; row < words; row++) {
+				names[row] = dis.readUTF();
+				rowOf.put(names[row], row);
+				scales[row] = dis.readFloat();
+				norms[row] = dis.readFloat();
+				dis.readFully(codeBlocks[row >> blockBits], (row & blockMask) * codeBytes, codeBytes);
+			}
+		}
+	}
+
+	/**
+	 * @return the number of vectors of the quantized model
+	 */
+	public int quantizedSize() {
+		return words;
+	}
+
+	/**
+	 * @return the number of code bytes per vector of the quantized model
+	 */
+	public int codeBytes() {
+		return quantizer.codeBytes();
+	}
+
+	/**
+	 * @return the word of a row of the loaded quantized or text model
+	 */
+	public String word(int row) {
+		return names[row];
+	}
+
+	/**
+	 * @return the row of a word in the loaded quantized or text model, -1 if it has none
+	 */
+	public int rowOf(String word) {
+		Integer row = rowOf.get(word);
+		return row == null ? -1 : row;
+	}
+
+	/**
+	 * @return the decoded approximation of a row of the quantized model
+	 */
+	public float[] decode(int row) {
+		float[] vector = new float[size];
+		quantizer.decode(codeBlocks[row >> blockBits], (row & blockMask) * quantizer.codeBytes(), scales[row], vector);
+		return vector;
+	}
+
+	/**
+	 * @return the approximate dot product of two rows, computed on their codes
+	 */
+	public double dot(int row, int other) {
+		int codeBytes = quantizer.codeBytes();
+		return (double) scales[row] * scales[other] * quantizer.dot(
+				codeBlocks[row >> blockBits], (row & blockMask) * codeBytes,
+				codeBlocks[other >> blockBits], (other & blockMask) * codeBytes);
+	}
+
+	/**
+	 * @return the approximate cosine similarity of two rows, computed on their codes
+	 */
+	public double cosine(int row, int other) {
+		double norm = (double) norms[row] * norms[other];
+		return norm == 0 ? 0 : dot(row, other) / norm;
+	}
+
+	/**
+	 * score every row of the quantized model against a query
+	 * @param query a vector of the model size
+	 * @param cosine divide by the norm of every row, so that scores rank like cosine similarity
+	 * @param scores receives one score per row
+	 */
+	public void scores(float[] query, boolean cosine, float[] scores) {
+		Quantizer.Query prepared = quantizer.query(query);
+		int codeBytes = quantizer.codeBytes();
+		for (int b = 0; b < codeBlocks.length; b++) {
+			prepared.dots(codeBlocks[b], 0, codeBlocks[b].length / codeBytes, scores, b << blockBits);
+		}
+		for (int row = 0; row < words; row++) {
+			scores[row] *= cosine ? (norms[row] == 0 ? 0 : scales[row] / norms[row]) : scales[row];
+		}
+	}
+
+	/**
+	 * @param query a vector of the model size
+	 * @param k the number of rows to return
+	 * @return the rows with the highest approximate cosine similarity to the query, best first
+	 */
+	public int[] nearest(float[] query, int k) {
+		float[] scores = new float[words];
+		scores(query, true, scores);
+		return top(scores, k);
+	}
+
+	/**
+	 * compare two text models by their nearest neighbors, e.g. to check that float32
+	 * training finds the same structure as float64 on the same walks
+	 * @param other another loaded text model
+	 * @param k the number of neighbors by cosine similarity
+	 * @return the mean fraction of the k nearest neighbors of a word that are the same in both
+	 * models, over the words of this model that the other one has too
+	 */
+	public double neighborOverlap(Word2VEC other, int k) {
+		if (vectors == null || other.vectors == null)
+			throw new IllegalStateException("Neighbor overlap needs two text models.");
+		int[] otherRows = new int[vectors.rows()];
+		int shared = 0;
+		for (int row = 0; row < otherRows.length; row++) {
+			otherRows[row] = other.rowOf(names[row]);
+			if (otherRows[row] >= 0) shared++;
+		}
+		if (shared < 2)
+			throw new IllegalArgumentException("The models share fewer than two words.");
+		k = Math.min(k, shared - 1);
+		// only the shared words take part, as neighbors and as queries
+		int[] rows = new int[shared];
+		int n = 0;
+		for (int row = 0; row < otherRows.length; row++) {
+			if (otherRows[row] >= 0) rows[n++] = row;
+		}
+		double overlap = 0;
+		float[] scores = new float[shared], otherScores = new float[shared];
+		for (int q = 0; q < shared; q++) {
+			for (int i = 0; i < shared; i++) {
+				scores[i] = (float) cosineOf(vectors, rows[q], rows[i]);
+				otherScores[i] = (float) cosineOf(other.vectors, otherRows[rows[q]], otherRows[rows[i]]);
+			}
+			scores[q] = otherScores[q] = Float.NEGATIVE_INFINITY;
+			int[] found = top(scores, k), otherFound = top(otherScores, k);
+			Arrays.sort(otherFound);
+			int same = 0;
+			for (int i : found) {
+				if (Arrays.binarySearch(otherFound, i) >= 0) same++;
+			}
+			overlap += same / (double) k;
+		}
+		return overlap / shared;
+	}
+
+	private static double cosineOf(Matrix m, int row, int other) {
+		double norm = Math.sqrt(m.dot(row, m, row) * m.dot(other, m, other));
+		return norm == 0 ? 0 : m.dot(row, m, other) / norm;
+	}
+
+	/**
+	 * print the neighbor overlap of two text models
+	 * usage: Word2VEC A.emb B.emb [k], k defaults to 10
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2) {
+			System.err.println("usage: Word2VEC A.emb B.emb [k]");
+			return;
+		}
+		int k = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+		Word2VEC a = new Word2VEC(), b = new Word2VEC();
+		a.loadTextModel(args[0]);
+		b.loadTextModel(args[1]);
+		System.out.println(String.format("%s vs %s: %d-nearest-neighbor overlap %.3f",
+				args[0], args[1], k, a.neighborOverlap(b, k)));
+	}
+
+	/**
+	 * @return the indices of the k largest scores, largest first
+	 */
+	static int[] top(float[] scores, int k) {
+		k = Math.min(k, scores.length);
+		int[] best = new int[k];
+		int found = 0;
+		for (int i = 0; i < scores.length; i++) {
+			if (found == k && scores[i] <= scores[best[k - 1]]) continue;
+			int j = found < k ? found++ : k - 1;
+			while (j > 0 && scores[best[j - 1]] < scores[i]) {
+				best[j] = best[j - 1];
+				j--;
+			}
+			best[j] = i;
+		}
+		return best;
+	}
+
 	private static float readFloat(InputStream is) throws IOException {
 		byte[] bytes = new byte[4];
 		is.read(bytes);
@@ -0,0 +1,208 @@
+package word2vec.dist;
+
+import word2vec.util.Matrix;
+
+import java.io.*;
+import java.net.Socket;
+import java.util.Arrays;
+
+/**
+ * Worker side of the {@link ParameterServer} protocol.
+ * <p>
+ * The trainer reports every row before it changes it, and the client saves
+ * the value the row had at the last synchronization the first time it is
+ * touched in a round. A push sends the touched rows as deltas against their
+ * saved values, a pull applies the averaged deltas from the server on top of
+ * them. Rows that were not touched are neither copied nor scanned. Deltas go
+ * over the wire in the precision of the matrix.
+ */
+public class ParameterClient implements Closeable {
+
+    private final Socket socket;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+
+    private long seed;
+    private int rounds;
+
+    private Matrix[] weights;
+    private RowLog[] logs;
+
+    /**
+     * connect to a parameter server
+     * @param host server host
+     * @param port server port
+     * @param rank the rank of this worker, 0..numWorkers-1
+     * @throws IOException server not reachable
+     */
+    public ParameterClient(String host, int port, int rank) throws IOException {
+        socket = new Socket(host, port);
+        socket.setTcpNoDelay(true);
+        in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+        out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+        out.writeInt(ParameterServer.MAGIC);
+        out.writeInt(rank);
+        out.flush();
+    }
+
+    /**
+     * send the local word counts and receive the global ones,
+     * together with the shared seed and the number of sync rounds
+     * @param counts local counts, indexed by dense word id
+     * @return global counts, indexed by dense word id
+     * @throws IOException connection lost
+     */
+    public long[] exchangeCounts(long[] counts) throws IOException {
+        out.writeInt(counts.length);
+        for (long count : counts) out.writeLong(count);
+        out.flush();
+        try {
+            seed = in.readLong();
+            rounds = in.readInt();
+            long[] total = new long[in.readInt()];
+            for (int id = 0; id < total.length; id++) total[id] = in.readLong();
+            return total;
+        } catch (EOFException e) {
+            throw serverLost(e);
+        }
+    }
+
+    /**
+     * register the weights to synchronize
+     * all workers must call this with identically initialized weights
+     * @param matrices the weight matrices, in the same order on every worker
+     */
+    public void attach(Matrix... matrices) {
+        weights = matrices;
+        logs = new RowLog[matrices.length];
+        for (int m = 0; m < matrices.length; m++) {
+            logs[m] = new RowLog(matrices[m]);
+        }
+    }
+
+    /**
+     * record that a row is about to change; rows changed without this call are not synchronized
+     * @param matrix the index of the matrix in the attach call
+     * @param row the row
+     */
+    public void touch(int matrix, int row) {
+        logs[matrix].touch(row);
+    }
+
+    /**
+     * push the local changes and replace them by the averaged changes of all workers
+     * @throws IOException connection lost
+     */
+    public void sync() throws IOException {
+        out.writeInt(weights.length);
+        for (int m = 0; m < weights.length; m++) {
+            push(weights[m], logs[m]);
+        }
+        out.flush();
+        try {
+            for (int m = 0; m < weights.length; m++) {
+                pull(weights[m], logs[m]);
+                logs[m].clear();
+            }
+        } catch (EOFException e) {
+            throw serverLost(e);
+        }
+    }
+
+    private void push(Matrix w, RowLog log) throws IOException {
+        int cols = w.cols();
+        boolean precise = isPrecise(w);
+        out.writeInt(w.rows());
+        out.writeInt(cols);
+        out.writeBoolean(precise);
+        out.writeInt(log.size);
+        for (int k = 0; k < log.size; k++) {
+            int row = log.rows[k];
+            out.writeInt(row);
+            for (int j = 0; j < cols; j++) {
+                double delta = w.get(row, j) - log.saved[k * cols + j];
+                if (precise) out.writeDouble(delta);
+                else out.writeFloat((float) delta);
+            }
+        }
+    }
+
+    private void pull(Matrix w, RowLog log) throws IOException {
+        int cols = w.cols();
+        boolean precise = isPrecise(w);
+        int changed = in.readInt();
+        for (int k = 0; k < changed; k++) {
+            int row = in.readInt();
+            // a row this worker did not touch still holds its value of the last sync
+            int slot = log.slots[row];
+            for (int j = 0; j < cols; j++) {
+                double base = slot >= 0 ? log.saved[slot * cols + j] : w.get(row, j);
+                w.set(row, j, base + (precise ? in.readDouble() : in.readFloat()));
+            }
+        }
+    }
+
+    private static IOException serverLost(EOFException e) {
+        return new IOException("The parameter server closed the connection, its log names the worker that failed", e);
+    }
+
+    private static boolean isPrecise(Matrix w) {
+        return w.bytesPerValue() == Double.BYTES;
+    }
+
+    /**
+     * @return the seed shared by all workers, valid after {@link #exchangeCounts(long[])}
+     */
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * @return the number of sync rounds, valid after {@link #exchangeCounts(long[])}
+     */
+    public int getRounds() {
+        return rounds;
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+
+    /**
+     * the rows of one matrix touched since the last sync, with their values at that sync
+     */
+    private static final class RowLog {
+        private final Matrix w;
+        // slot of every row in rows and saved, -1 when not touched
+        private final int[] slots;
+        private int[] rows = new int[64];
+        private double[] saved;
+        private int size;
+
+        private RowLog(Matrix w) {
+            this.w = w;
+            slots = new int[w.rows()];
+            Arrays.fill(slots, -1);
+            saved = new double[rows.length * w.cols()];
+        }
+
+        private void touch(int row) {
+            if (slots[row] >= 0) return;
+            int cols = w.cols();
+            if (size == rows.length) {
+                rows = Arrays.copyOf(rows, size * 2);
+                saved = Arrays.copyOf(saved, size * 2 * cols);
+            }
+            slots[row] = size;
+            rows[size] = row;
+            for (int j = 0; j < cols; j++) saved[size * cols + j] = w.get(row, j);
+            size++;
+        }
+
+        private void clear() {
+            for (int k = 0; k < size; k++) slots[rows[k]] = -1;
+            size = 0;
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package word2vec.dist;
+
+import word2vec.util.Matrix;
+
+import java.io.*;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+
+/**
+ * Lightweight parameter server for data-parallel training over TCP.
+ * <p>
+ * A fixed number of worker processes connect, each training a {@link word2vec.Model}
+ * on its own partition of the walk corpus. The protocol runs in lockstep:
+ * <ol>
+ * <li>every worker sends its local word counts; the server sums them and
+ * answers with the global counts, a shared seed and the number of sync rounds,
+ * so that all workers build the same Huffman tree and the same initial weights;</li>
+ * <li>in each round every worker pushes the rows of syn0/syn1 it changed since
+ * the last round, as deltas; the server averages each row over the workers
+ * that touched it and sends the averaged deltas back.</li>
+ * </ol>
+ * Since all workers start from the same weights, applying the averaged deltas
+ * is model averaging restricted to the rows that actually moved. Deltas travel
+ * as doubles for double precision weights and as floats otherwise.
+ */
+public class ParameterServer {
+
+    static final int MAGIC = 0x6e327670; // "n2vp"
+
+    private final int port;
+    private final int numWorkers;
+    private final int rounds;
+    private final long seed;
+
+    /**
+     * @param port the TCP port to listen on
+     * @param numWorkers number of worker processes to wait for
+     * @param rounds number of synchronization rounds per training run
+     * @param seed seed shared by all workers for weight initialization
+     */
+    public ParameterServer(int port, int numWorkers, int rounds, long seed) {
+        if (numWorkers <= 0 || rounds <= 0)
+            throw new IllegalArgumentException("Number of workers and rounds must be positive.");
+        this.port = port;
+        this.numWorkers = numWorkers;
+        this.rounds = rounds;
+        this.seed = seed;
+    }
+
+    /**
+     * accept the workers and serve one training run
+     * @throws IOException connection lost or protocol violated
+     */
+    public void serve() throws IOException {
+        DataInputStream[] in = new DataInputStream[numWorkers];
+        DataOutputStream[] out = new DataOutputStream[numWorkers];
+        Socket[] sockets = new Socket[numWorkers];
+        try (ServerSocket server = new ServerSocket(port)) {
+            System.out.println("Parameter server listening on port " + server.getLocalPort()
+                    + ", waiting for " + numWorkers + " workers");
+            for (int i = 0; i < numWorkers; i++) {
+                Socket socket = server.accept();
+                socket.setTcpNoDelay(true);
+                DataInputStream dis = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+                if (dis.readInt() != MAGIC)
+                    throw new IOException("Unexpected handshake from " + socket.getRemoteSocketAddress());
+                int rank = dis.readInt();
+                if (rank < 0 || rank >= numWorkers || sockets[rank] != null)
+                    throw new IOException("Invalid or duplicate worker rank " + rank);
+                sockets[rank] = socket;
+                in[rank] = dis;
+                out[rank] = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+                System.out.println("Worker " + rank + " connected from " + socket.getRemoteSocketAddress());
+            }
+            exchangeCounts(in, out);
+            for (int r = 0; r < rounds; r++) {
+                averageRound(in, out, r);
+                System.out.println("Sync round " + (r + 1) + "/" + rounds + " done");
+            }
+        } finally {
+            for (Socket socket : sockets) {
+                if (socket != null) socket.close();
+            }
+        }
+    }
+
+    private void exchangeCounts(DataInputStream[] in, DataOutputStream[] out) throws IOException {
+        long[] total = null;
+        for (int w = 0; w < in.length; w++) {
+            DataInputStream dis = in[w];
+            try {
+                int numIds = dis.readInt();
+                if (total == null) total = new long[numIds];
+                else if (total.length != numIds)
+                    throw new IOException("Workers disagree on the vocabulary size: " + total.length + " vs " + numIds);
+                for (int id = 0; id < numIds; id++) total[id] += dis.readLong();
+            } catch (EOFException e) {
+                throw new IOException("Worker " + w + " closed the connection before sending its word counts", e);
+            }
+        }
+        for (DataOutputStream dos : out) {
+            dos.writeLong(seed);
+            dos.writeInt(rounds);
+            dos.writeInt(total.length);
+            for (long count : total) dos.writeLong(count);
+            dos.flush();
+        }
+    }
+
+    private Matrix[] sums;
+    private boolean[] precise;
+    private int[][] touched;
+
+    private void averageRound(DataInputStream[] in, DataOutputStream[] out, int round) throws IOException {
+        for (int w = 0; w < in.length; w++) {
+            try {
+                readDeltas(in[w]);
+            } catch (EOFException e) {
+                throw new IOException("Worker " + w + " closed the connection in sync round "
+                        + (round + 1) + "/" + rounds, e);
+            }
+        }
+        for (DataOutputStream dos : out) {
+            for (int m = 0; m < sums.length; m++) {
+                writeAverages(dos, m);
+            }
+            dos.flush();
+        }
+        for (int m = 0; m < sums.length; m++) {
+            for (int row = 0; row < touched[m].length; row++) {
+                if (touched[m][row] > 0) sums[m].clear(row);
+            }
+            Arrays.fill(touched[m], 0);
+        }
+    }
+
+    /**
+     * add the deltas pushed by one worker to the sums of this round
+     */
+    private void readDeltas(DataInputStream dis) throws IOException {
+        int numMatrices = dis.readInt();
+        if (sums == null) {
+            sums = new Matrix[numMatrices];
+            precise = new boolean[numMatrices];
+            touched = new int[numMatrices][];
+        }
+        for (int m = 0; m < numMatrices; m++) {
+            int rows = dis.readInt();
+            int cols = dis.readInt();
+            boolean doubles = dis.readBoolean();
+            if (sums[m] == null) {
+                sums[m] = Matrix.create(rows, cols, !doubles);
+                precise[m] = doubles;
+                touched[m] = new int[rows];
+            } else if (sums[m].rows() != rows || sums[m].cols() != cols || precise[m] != doubles)
+                throw new IOException("Workers disagree on the shape or precision of matrix " + m);
+            int changed = dis.readInt();
+            for (int k = 0; k < changed; k++) {
+                int row = dis.readInt();
+                for (int j = 0; j < cols; j++) {
+                    sums[m].set(row, j, sums[m].get(row, j) + (doubles ? dis.readDouble() : dis.readFloat()));
+                }
+                touched[m][row]++;
+            }
+        }
+    }
+
+    private void writeAverages(DataOutputStream dos, int m) throws IOException {
+        int changed = 0;
+        for (int count : touched[m]) {
+            if (count > 0) changed++;
+        }
+        dos.writeInt(changed);
+        int cols = sums[m].cols();
+        for (int row = 0; row < touched[m].length; row++) {
+            if (touched[m][row] == 0) continue;
+            dos.writeInt(row);
+            for (int j = 0; j < cols; j++) {
+                double average = sums[m].get(row, j) / touched[m][row];
+                if (precise[m]) dos.writeDouble(average);
+                else dos.writeFloat((float) average);
+            }
+        }
+    }
+}
@@ -2,10 +2,10 @@ package word2vec.domain;
 
 public class HiddenNeuron extends Neuron{
     
-    public double[] syn1 ; //hidden->out
+    public int index; // row of this neuron in syn1, hidden->out
     
-    public HiddenNeuron(int layerSize){
-        syn1 = new double[layerSize] ;
+    public HiddenNeuron(int index){
+        this.index = index;
     }
     
 }
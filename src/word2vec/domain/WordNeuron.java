@@ -1,13 +1,13 @@
 package word2vec.domain;
 
 import java.util.Collections;
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Random;
 
 public class WordNeuron extends Neuron {
   public String name;
-  public double[] syn0 = null; // input->hidden
+  public int id = -1; // dense id when the vocabulary is built from integer walks
+  public int index = -1; // row of this word in syn0, input->hidden
   public List<Neuron> neurons = null;// 路径神经元
   public int[] codeArr = null;
 
@@ -16,7 +16,7 @@ public class WordNeuron extends Neuron {
       return neurons;
     }
     Neuron neuron = this;
-    neurons = new LinkedList<>();
+    neurons = new ArrayList<>();
     while ((neuron = neuron.parent) != null) {
       neurons.add(neuron);
     }
@@ -31,14 +31,14 @@ public class WordNeuron extends Neuron {
     return neurons;
   }
 
-  public WordNeuron(String name, double freq, int layerSize) {
+  public WordNeuron(String name, double freq) {
     this.name = name;
     this.freq = freq;
-    this.syn0 = new double[layerSize];
-    Random random = new Random();
-    for (int i = 0; i < syn0.length; i++) {
-      syn0[i] = (random.nextDouble() - 0.5) / layerSize;
-    }
+  }
+
+  public WordNeuron(int id, double freq) {
+    this(null, freq);
+    this.id = id;
   }
 
   /**
@@ -46,17 +46,12 @@ public class WordNeuron extends Neuron {
    * 
    * @param name
    * @param freq
-   * @param layerSize
+   * @param category
    */
-  public WordNeuron(String name, double freq, int category, int layerSize) {
+  public WordNeuron(String name, double freq, int category) {
     this.name = name;
     this.freq = freq;
-    this.syn0 = new double[layerSize];
     this.category = category;
-    Random random = new Random();
-    for (int i = 0; i < syn0.length; i++) {
-      syn0[i] = (random.nextDouble() - 0.5) / layerSize;
-    }
   }
 
 }
\ No newline at end of file
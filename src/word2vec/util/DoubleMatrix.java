@@ -0,0 +1,100 @@
+package word2vec.util;
+
+/**
+ * Matrix backed by double[] blocks.
+ */
+public class DoubleMatrix extends Matrix {
+
+    private final double[][] blocks;
+    private final int shift, mask;
+
+    public DoubleMatrix(int rows, int cols) {
+        super(rows, cols);
+        int rowsPerBlock = rowsPerBlock(cols);
+        shift = Integer.numberOfTrailingZeros(rowsPerBlock);
+        mask = rowsPerBlock - 1;
+        blocks = new double[(rows + rowsPerBlock - 1) / rowsPerBlock][];
+        for (int b = 0; b < blocks.length; b++) {
+            int blockRows = Math.min(rowsPerBlock, rows - (b << shift));
+            blocks[b] = new double[blockRows * cols];
+        }
+    }
+
+    @Override
+    public double dot(int row, Matrix other, int otherRow) {
+        double[] a = blocks[row >>> shift];
+        int ai = (row & mask) * cols;
+        double f = 0;
+        if (other instanceof DoubleMatrix) {
+            DoubleMatrix that = (DoubleMatrix) other;
+            double[] b = that.blocks[otherRow >>> that.shift];
+            int bi = (otherRow & that.mask) * cols;
+            for (int j = 0; j < cols; j++) f += a[ai + j] * b[bi + j];
+        } else {
+            for (int j = 0; j < cols; j++) f += a[ai + j] * other.get(otherRow, j);
+        }
+        return f;
+    }
+
+    @Override
+    public void add(int row, double scale, Matrix other, int otherRow) {
+        double[] a = blocks[row >>> shift];
+        int ai = (row & mask) * cols;
+        if (other instanceof DoubleMatrix) {
+            DoubleMatrix that = (DoubleMatrix) other;
+            double[] b = that.blocks[otherRow >>> that.shift];
+            int bi = (otherRow & that.mask) * cols;
+            for (int j = 0; j < cols; j++) a[ai + j] += scale * b[bi + j];
+        } else {
+            for (int j = 0; j < cols; j++) a[ai + j] += scale * other.get(otherRow, j);
+        }
+    }
+
+    @Override
+    public void getRow(int row, float[] dst, int offset) {
+        double[] a = blocks[row >>> shift];
+        int ai = (row & mask) * cols;
+        for (int j = 0; j < cols; j++) dst[offset + j] = (float) a[ai + j];
+    }
+
+    @Override
+    public void addRow(int row, float[] src, int offset) {
+        double[] a = blocks[row >>> shift];
+        int ai = (row & mask) * cols;
+        for (int j = 0; j < cols; j++) a[ai + j] += src[offset + j];
+    }
+
+    @Override
+    public void getRow(int row, double[] dst, int offset) {
+        System.arraycopy(blocks[row >>> shift], (row & mask) * cols, dst, offset, cols);
+    }
+
+    @Override
+    public void addRow(int row, double[] src, int offset) {
+        double[] a = blocks[row >>> shift];
+        int ai = (row & mask) * cols;
+        for (int j = 0; j < cols; j++) a[ai + j] += src[offset + j];
+    }
+
+    @Override
+    public void clear(int row) {
+        double[] a = blocks[row >>> shift];
+        int ai = (row & mask) * cols;
+        for (int j = 0; j < cols; j++) a[ai + j] = 0;
+    }
+
+    @Override
+    public double get(int row, int col) {
+        return blocks[row >>> shift][(row & mask) * cols + col];
+    }
+
+    @Override
+    public void set(int row, int col, double value) {
+        blocks[row >>> shift][(row & mask) * cols + col] = value;
+    }
+
+    @Override
+    public int bytesPerValue() {
+        return Double.BYTES;
+    }
+}
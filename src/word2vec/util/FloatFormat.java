@@ -0,0 +1,219 @@
+package word2vec.util;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Float to ASCII text and back, without the intermediate strings of
+ * Float.toString and Float.parseFloat.
+ * <p>
+ * format writes the shortest decimal that parses back to the same float, in
+ * the layout of Float.toString: plain notation for magnitudes in [1e-3, 1e7)
+ * and "1.5E-4" style otherwise. The digits are found with double arithmetic,
+ * which has enough precision to round a float to at most 9 significant
+ * digits, and every result is checked to read back exactly.
+ */
+public final class FloatFormat {
+
+    /* longest text format writes, e.g. "-1.2345678E-38" */
+    public static final int MAX_LENGTH = 15;
+
+    /* significant digits that always identify a float */
+    private static final int MAX_DIGITS = 9;
+    private static final double LOG10_2 = 0.30102999566398120;
+    private static final double[] POW10 = new double[61];
+    private static final long[] LONG_POW10 = new long[MAX_DIGITS + 1];
+    // approximate, only used to pick the multiple of 10^k nearest to a value
+    private static final double[] INVERSE_POW10 = new double[MAX_DIGITS + 1];
+
+    static {
+        for (int k = 0; k < POW10.length; k++) POW10[k] = Double.parseDouble("1e" + k);
+        LONG_POW10[0] = 1;
+        for (int k = 1; k < LONG_POW10.length; k++) LONG_POW10[k] = LONG_POW10[k - 1] * 10;
+        for (int k = 0; k < INVERSE_POW10.length; k++) INVERSE_POW10[k] = 1 / POW10[k];
+    }
+
+    private FloatFormat() {
+    }
+
+    /**
+     * @param value the value to write
+     * @param dst receives at most MAX_LENGTH bytes at pos
+     * @return the position after the written text
+     */
+    public static int format(float value, byte[] dst, int pos) {
+        if (Float.isNaN(value) || Float.isInfinite(value)) {
+            byte[] text = Float.toString(value).getBytes(StandardCharsets.US_ASCII);
+            System.arraycopy(text, 0, dst, pos, text.length);
+            return pos + text.length;
+        }
+        if (Float.floatToRawIntBits(value) < 0) dst[pos++] = '-';
+        float magnitude = Math.abs(value);
+        if (magnitude == 0) {
+            dst[pos++] = '0';
+            dst[pos++] = '.';
+            dst[pos++] = '0';
+            return pos;
+        }
+        double d = magnitude;
+        // the decimal exponent, from the binary one and corrected below
+        int e10 = (int) Math.floor(Math.getExponent(d) * LOG10_2);
+        double m = scale(d, MAX_DIGITS - 1 - e10);
+        if (m >= LONG_POW10[MAX_DIGITS]) {
+            e10++;
+            m = scale(d, MAX_DIGITS - 1 - e10);
+        }
+
+        // the integers strictly between the scaled midpoints to the neighboring floats
+        // all read back as this float; take the one with the fewest significant digits
+        // (if a multiple of 10^(k+1) lies in between, so does one of 10^k)
+        int shift = MAX_DIGITS - 1 - e10;
+        int bits = Float.floatToRawIntBits(magnitude);
+        double lowBound = scale((d + Float.intBitsToFloat(bits - 1)) / 2, shift);
+        double highBound = scale((d + Float.intBitsToFloat(bits + 1)) / 2, shift);
+        long low = (long) lowBound + 1;
+        long high = (long) highBound;
+        if (high == highBound) high--;
+        long candidate = -1;
+        for (int k = 0; k < MAX_DIGITS; k++) {
+            long unit = LONG_POW10[k];
+            // ties to even, like Float.toString
+            long c = (long) Math.rint(m * INVERSE_POW10[k]) * unit;
+            if (c > high) c -= unit;
+            else if (c < low) c += unit;
+            if (c < low || c > high) break;
+            candidate = c;
+        }
+        if (candidate < 0 || (float) scale(candidate, -shift) != magnitude) {
+            // the bounds were off by a rounding error; bisect on full round trips instead
+            int lo = 1, hi = MAX_DIGITS;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (roundTrips(d, magnitude, mid, e10)) hi = mid;
+                else lo = mid + 1;
+            }
+            candidate = Math.round(scale(d, lo - 1 - e10)) * LONG_POW10[MAX_DIGITS - lo];
+        }
+        if (candidate >= LONG_POW10[MAX_DIGITS]) {
+            // rounded up to the next power of ten
+            candidate /= 10;
+            e10++;
+        }
+        int digits = (int) candidate;
+        int count = MAX_DIGITS;
+        while (count > 1 && digits % 10 == 0) {
+            digits /= 10;
+            count--;
+        }
+
+        // digits with an index of at least dotAfter go after the decimal point
+        boolean scientific = e10 < -3 || e10 >= 7;
+        int start = pos, dotAfter;
+        if (scientific) {
+            dotAfter = 1;
+        } else if (e10 >= 0) {
+            dotAfter = e10 + 1;
+        } else {
+            dst[pos++] = '0';
+            dst[pos++] = '.';
+            for (int k = -1; k > e10; k--) dst[pos++] = '0';
+            start = pos;
+            dotAfter = count;
+        }
+        for (int k = count - 1; k >= 0; k--) {
+            dst[start + k + (k >= dotAfter ? 1 : 0)] = (byte) ('0' + digits % 10);
+            digits /= 10;
+        }
+        if (!scientific && e10 < 0) return start + count;
+        if (count > dotAfter) {
+            dst[start + dotAfter] = '.';
+            pos = start + count + 1;
+        } else {
+            pos = start + count;
+            for (int k = count; k < dotAfter; k++) dst[pos++] = '0';
+            dst[pos++] = '.';
+            dst[pos++] = '0';
+        }
+        if (scientific) {
+            dst[pos++] = 'E';
+            if (e10 < 0) {
+                dst[pos++] = '-';
+                e10 = -e10;
+            }
+            if (e10 >= 10) dst[pos++] = (byte) ('0' + e10 / 10);
+            dst[pos++] = (byte) ('0' + e10 % 10);
+        }
+        return pos;
+    }
+
+    /**
+     * parse a decimal such as "-1.5", "2", ".5" or "1.5E-4"
+     * @param text ASCII text
+     * @param from the first byte of the number
+     * @param to one past the last byte of the number
+     * @return the nearest float
+     * @throws NumberFormatException the bytes are not a number
+     */
+    public static float parse(byte[] text, int from, int to) {
+        int i = from;
+        boolean negative = false;
+        if (i < to && (text[i] == '-' || text[i] == '+')) negative = text[i++] == '-';
+        long mantissa = 0;
+        int significant = 0, exponent = 0;
+        boolean sawDigit = false;
+        for (; i < to && isDigit(text[i]); i++) {
+            sawDigit = true;
+            if (significant < 18) {
+                mantissa = mantissa * 10 + (text[i] - '0');
+                if (mantissa != 0) significant++;
+            } else {
+                exponent++;
+            }
+        }
+        if (i < to && text[i] == '.') {
+            for (i++; i < to && isDigit(text[i]); i++) {
+                sawDigit = true;
+                if (significant < 18) {
+                    mantissa = mantissa * 10 + (text[i] - '0');
+                    if (mantissa != 0) significant++;
+                    exponent--;
+                }
+            }
+        }
+        if (sawDigit && i < to && (text[i] == 'E' || text[i] == 'e')) {
+            i++;
+            boolean negativeExponent = false;
+            if (i < to && (text[i] == '-' || text[i] == '+')) negativeExponent = text[i++] == '-';
+            int e = 0;
+            boolean sawExponent = false;
+            for (; i < to && isDigit(text[i]); i++) {
+                sawExponent = true;
+                if (e < 10000) e = e * 10 + (text[i] - '0');
+            }
+            if (!sawExponent) i = -1;
+            exponent += negativeExponent ? -e : e;
+        }
+        if (!sawDigit || i != to || exponent < -POW10.length + 1 || exponent >= POW10.length) {
+            // NaN, Infinity, hex, extreme exponents and malformed text
+            return Float.parseFloat(new String(text, from, to - from, StandardCharsets.US_ASCII));
+        }
+        float value = (float) scale(mantissa, exponent);
+        return negative ? -value : value;
+    }
+
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+
+    private static boolean roundTrips(double d, float magnitude, int digits, int e10) {
+        int shift = digits - 1 - e10;
+        return (float) scale(Math.round(scale(d, shift)), -shift) == magnitude;
+    }
+
+    /**
+     * @return d * 10^k, exact when d and 10^|k| are exact and the result is representable
+     */
+    private static double scale(double d, int k) {
+        return k >= 0 ? d * POW10[k] : d / POW10[-k];
+    }
+
+}
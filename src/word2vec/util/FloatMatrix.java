@@ -0,0 +1,91 @@
+package word2vec.util;
+
+/**
+ * Matrix backed by float[] blocks, half the memory of {@link DoubleMatrix}.
+ * Products accumulate in float so that the loops use the full vector width.
+ */
+public class FloatMatrix extends Matrix {
+
+    private final float[][] blocks;
+    private final int shift, mask;
+
+    public FloatMatrix(int rows, int cols) {
+        super(rows, cols);
+        int rowsPerBlock = rowsPerBlock(cols);
+        shift = Integer.numberOfTrailingZeros(rowsPerBlock);
+        mask = rowsPerBlock - 1;
+        blocks = new float[(rows + rowsPerBlock - 1) / rowsPerBlock][];
+        for (int b = 0; b < blocks.length; b++) {
+            int blockRows = Math.min(rowsPerBlock, rows - (b << shift));
+            blocks[b] = new float[blockRows * cols];
+        }
+    }
+
+    @Override
+    public double dot(int row, Matrix other, int otherRow) {
+        float[] a = blocks[row >>> shift];
+        int ai = (row & mask) * cols;
+        float f = 0;
+        if (other instanceof FloatMatrix) {
+            FloatMatrix that = (FloatMatrix) other;
+            float[] b = that.blocks[otherRow >>> that.shift];
+            int bi = (otherRow & that.mask) * cols;
+            for (int j = 0; j < cols; j++) f += a[ai + j] * b[bi + j];
+        } else {
+            // the other side may hold doubles, keep their precision
+            double d = 0;
+            for (int j = 0; j < cols; j++) d += a[ai + j] * other.get(otherRow, j);
+            return d;
+        }
+        return f;
+    }
+
+    @Override
+    public void add(int row, double scale, Matrix other, int otherRow) {
+        float[] a = blocks[row >>> shift];
+        int ai = (row & mask) * cols;
+        float s = (float) scale;
+        if (other instanceof FloatMatrix) {
+            FloatMatrix that = (FloatMatrix) other;
+            float[] b = that.blocks[otherRow >>> that.shift];
+            int bi = (otherRow & that.mask) * cols;
+            for (int j = 0; j < cols; j++) a[ai + j] += s * b[bi + j];
+        } else {
+            for (int j = 0; j < cols; j++) a[ai + j] += s * (float) other.get(otherRow, j);
+        }
+    }
+
+    @Override
+    public void getRow(int row, float[] dst, int offset) {
+        System.arraycopy(blocks[row >>> shift], (row & mask) * cols, dst, offset, cols);
+    }
+
+    @Override
+    public void addRow(int row, float[] src, int offset) {
+        float[] a = blocks[row >>> shift];
+        int ai = (row & mask) * cols;
+        for (int j = 0; j < cols; j++) a[ai + j] += src[offset + j];
+    }
+
+    @Override
+    public void clear(int row) {
+        float[] a = blocks[row >>> shift];
+        int ai = (row & mask) * cols;
+        for (int j = 0; j < cols; j++) a[ai + j] = 0;
+    }
+
+    @Override
+    public double get(int row, int col) {
+        return blocks[row >>> shift][(row & mask) * cols + col];
+    }
+
+    @Override
+    public void set(int row, int col, double value) {
+        blocks[row >>> shift][(row & mask) * cols + col] = (float) value;
+    }
+
+    @Override
+    public int bytesPerValue() {
+        return Float.BYTES;
+    }
+}
@@ -7,23 +7,25 @@ import java.util.Collection;
 import java.util.TreeSet;
 
 public class Haffman {
-  private int layerSize;
-
-  public Haffman(int layerSize) {
-    this.layerSize = layerSize;
-  }
+  private int hiddenCount = 0;
 
   private TreeSet<Neuron> set = new TreeSet<>();
 
-  public void make(Collection<Neuron> neurons) {
+  /**
+   * build the tree over the given leaves
+   *
+   * @return the number of hidden neurons created, numbered 0..n-1
+   */
+  public int make(Collection<Neuron> neurons) {
     set.addAll(neurons);
     while (set.size() > 1) {
       merger();
     }
+    return hiddenCount;
   }
 
   private void merger() {
-    HiddenNeuron hn = new HiddenNeuron(layerSize);
+    HiddenNeuron hn = new HiddenNeuron(hiddenCount++);
     Neuron min1 = set.pollFirst();
     Neuron min2 = set.pollFirst();
     hn.category = min2.category;
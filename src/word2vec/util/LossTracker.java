@@ -0,0 +1,41 @@
+package word2vec.util;
+
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Running mean of the training loss over a sample of the updates. The sums
+ * are striped adders, so trainer threads can report losses without
+ * contending on one shared variable.
+ */
+public class LossTracker {
+
+    private final DoubleAdder sum = new DoubleAdder();
+    private final LongAdder count = new LongAdder();
+
+    /**
+     * @param loss the summed loss of some training pairs
+     * @param pairs the number of pairs
+     */
+    public void add(double loss, long pairs) {
+        sum.add(loss);
+        count.add(pairs);
+    }
+
+    /**
+     * @return the mean loss per pair since the last reset, NaN if nothing was added
+     */
+    public double mean() {
+        long n = count.sum();
+        return n == 0 ? Double.NaN : sum.sum() / n;
+    }
+
+    public long count() {
+        return count.sum();
+    }
+
+    public void reset() {
+        sum.reset();
+        count.reset();
+    }
+}
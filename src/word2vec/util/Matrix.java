@@ -0,0 +1,118 @@
+package word2vec.util;
+
+import java.util.Random;
+
+/**
+ * A dense rows x cols parameter matrix. The training loops only use row-level
+ * operations, so every storage layout can keep its inner loops monomorphic.
+ * Rows are stored in blocks so that the row count is not capped by the maximum
+ * Java array length.
+ */
+public abstract class Matrix {
+
+    /* upper bound on the number of elements in one backing block */
+    static final int MAX_BLOCK_ELEMENTS = 1 << 27;
+
+    protected final int rows, cols;
+
+    protected Matrix(int rows, int cols) {
+        if (rows < 0 || cols <= 0)
+            throw new IllegalArgumentException("Invalid matrix shape " + rows + "x" + cols);
+        this.rows = rows;
+        this.cols = cols;
+    }
+
+    /**
+     * allocate a zero-filled matrix
+     * @param rows number of rows
+     * @param cols number of columns
+     * @param singlePrecision store float32 instead of float64 values
+     * @return the matrix
+     */
+    public static Matrix create(int rows, int cols, boolean singlePrecision) {
+        return singlePrecision ? new FloatMatrix(rows, cols) : new DoubleMatrix(rows, cols);
+    }
+
+    /**
+     * @return the dot product of this[row] and other[otherRow]
+     */
+    public abstract double dot(int row, Matrix other, int otherRow);
+
+    /**
+     * this[row] += scale * other[otherRow]
+     */
+    public abstract void add(int row, double scale, Matrix other, int otherRow);
+
+    /**
+     * copy this[row] into dst[offset..offset+cols)
+     */
+    public abstract void getRow(int row, float[] dst, int offset);
+
+    /**
+     * this[row] += src[offset..offset+cols)
+     */
+    public abstract void addRow(int row, float[] src, int offset);
+
+    /**
+     * copy this[row] into dst[offset..offset+cols), for callers that work at double precision
+     */
+    public void getRow(int row, double[] dst, int offset) {
+        for (int j = 0; j < cols; j++) dst[offset + j] = get(row, j);
+    }
+
+    /**
+     * this[row] += src[offset..offset+cols)
+     */
+    public void addRow(int row, double[] src, int offset) {
+        for (int j = 0; j < cols; j++) set(row, j, get(row, j) + src[offset + j]);
+    }
+
+    /**
+     * this[row] = src[offset..offset+cols)
+     */
+    public void setRow(int row, float[] src, int offset) {
+        clear(row);
+        addRow(row, src, offset);
+    }
+
+    /**
+     * this[row] = 0
+     */
+    public abstract void clear(int row);
+
+    public abstract double get(int row, int col);
+
+    public abstract void set(int row, int col, double value);
+
+    /**
+     * @return the number of bytes used by one value
+     */
+    public abstract int bytesPerValue();
+
+    /**
+     * fill every value with (random - 0.5) / cols, the usual word2vec initialization
+     * @param random the generator
+     */
+    public void randomize(Random random) {
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < cols; c++) {
+                set(r, c, (random.nextDouble() - 0.5) / cols);
+            }
+        }
+    }
+
+    public int rows() {
+        return rows;
+    }
+
+    public int cols() {
+        return cols;
+    }
+
+    /**
+     * @return the number of rows that go into one backing block, a power of two
+     */
+    static int rowsPerBlock(int cols) {
+        return Integer.highestOneBit(Math.max(1, MAX_BLOCK_ELEMENTS / cols));
+    }
+}
@@ -0,0 +1,161 @@
+package word2vec.util;
+
+/**
+ * Small dense matrix products on row-major float or double arrays, used by
+ * the mini-batched trainer at the precision of the weights. The shapes are tiny (a window of contexts times a
+ * handful of outputs) but the inner dimension is the layer size, so the
+ * loops are blocked to reuse every loaded row for several outputs and keep
+ * the innermost loop a contiguous, vectorizable pass over the layer.
+ */
+public final class MatrixKernel {
+
+    /* number of rows of b processed together in multiplyTransposed */
+    private static final int BLOCK = 4;
+
+    private MatrixKernel() {
+    }
+
+    /**
+     * c = a * b^T
+     * @param a m x d
+     * @param b n x d
+     * @param c m x n, overwritten
+     */
+    public static void multiplyTransposed(float[] a, int m, float[] b, int n, int d, float[] c) {
+        for (int i = 0; i < m; i++) {
+            int ai = i * d;
+            int j = 0;
+            for (; j + BLOCK <= n; j += BLOCK) {
+                int b0 = j * d, b1 = b0 + d, b2 = b1 + d, b3 = b2 + d;
+                float s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+                for (int k = 0; k < d; k++) {
+                    float x = a[ai + k];
+                    s0 += x * b[b0 + k];
+                    s1 += x * b[b1 + k];
+                    s2 += x * b[b2 + k];
+                    s3 += x * b[b3 + k];
+                }
+                c[i * n + j] = s0;
+                c[i * n + j + 1] = s1;
+                c[i * n + j + 2] = s2;
+                c[i * n + j + 3] = s3;
+            }
+            for (; j < n; j++) {
+                int bj = j * d;
+                float s = 0;
+                for (int k = 0; k < d; k++) s += a[ai + k] * b[bj + k];
+                c[i * n + j] = s;
+            }
+        }
+    }
+
+    /**
+     * c = g * b
+     * @param g m x n
+     * @param b n x d
+     * @param c m x d, overwritten
+     */
+    public static void multiply(float[] g, int m, int n, float[] b, int d, float[] c) {
+        for (int i = 0; i < m; i++) {
+            int ci = i * d;
+            for (int k = 0; k < d; k++) c[ci + k] = 0;
+            for (int j = 0; j < n; j++) {
+                float x = g[i * n + j];
+                if (x == 0) continue;
+                int bj = j * d;
+                for (int k = 0; k < d; k++) c[ci + k] += x * b[bj + k];
+            }
+        }
+    }
+
+    /**
+     * c = g^T * a
+     * @param g m x n
+     * @param a m x d
+     * @param c n x d, overwritten
+     */
+    public static void multiplyTransposedLeft(float[] g, int m, int n, float[] a, int d, float[] c) {
+        for (int k = 0; k < n * d; k++) c[k] = 0;
+        for (int i = 0; i < m; i++) {
+            int ai = i * d;
+            for (int j = 0; j < n; j++) {
+                float x = g[i * n + j];
+                if (x == 0) continue;
+                int cj = j * d;
+                for (int k = 0; k < d; k++) c[cj + k] += x * a[ai + k];
+            }
+        }
+    }
+
+    /**
+     * c = a * b^T, at double precision
+     * @param a m x d
+     * @param b n x d
+     * @param c m x n, overwritten
+     */
+    public static void multiplyTransposed(double[] a, int m, double[] b, int n, int d, double[] c) {
+        for (int i = 0; i < m; i++) {
+            int ai = i * d;
+            int j = 0;
+            for (; j + BLOCK <= n; j += BLOCK) {
+                int b0 = j * d, b1 = b0 + d, b2 = b1 + d, b3 = b2 + d;
+                double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+                for (int k = 0; k < d; k++) {
+                    double x = a[ai + k];
+                    s0 += x * b[b0 + k];
+                    s1 += x * b[b1 + k];
+                    s2 += x * b[b2 + k];
+                    s3 += x * b[b3 + k];
+                }
+                c[i * n + j] = s0;
+                c[i * n + j + 1] = s1;
+                c[i * n + j + 2] = s2;
+                c[i * n + j + 3] = s3;
+            }
+            for (; j < n; j++) {
+                int bj = j * d;
+                double s = 0;
+                for (int k = 0; k < d; k++) s += a[ai + k] * b[bj + k];
+                c[i * n + j] = s;
+            }
+        }
+    }
+
+    /**
+     * c = g * b, at double precision
+     * @param g m x n
+     * @param b n x d
+     * @param c m x d, overwritten
+     */
+    public static void multiply(double[] g, int m, int n, double[] b, int d, double[] c) {
+        for (int i = 0; i < m; i++) {
+            int ci = i * d;
+            for (int k = 0; k < d; k++) c[ci + k] = 0;
+            for (int j = 0; j < n; j++) {
+                double x = g[i * n + j];
+                if (x == 0) continue;
+                int bj = j * d;
+                for (int k = 0; k < d; k++) c[ci + k] += x * b[bj + k];
+            }
+        }
+    }
+
+    /**
+     * c = g^T * a, at double precision
+     * @param g m x n
+     * @param a m x d
+     * @param c n x d, overwritten
+     */
+    public static void multiplyTransposedLeft(double[] g, int m, int n, double[] a, int d, double[] c) {
+        for (int k = 0; k < n * d; k++) c[k] = 0;
+        for (int i = 0; i < m; i++) {
+            int ai = i * d;
+            for (int j = 0; j < n; j++) {
+                double x = g[i * n + j];
+                if (x == 0) continue;
+                int cj = j * d;
+                for (int k = 0; k < d; k++) c[cj + k] += x * a[ai + k];
+            }
+        }
+    }
+}
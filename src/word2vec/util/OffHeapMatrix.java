@@ -0,0 +1,174 @@
+package word2vec.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Float32 matrix stored outside the Java heap, either in direct buffers or in
+ * a memory-mapped file. The GC never scans or copies the values, so pause
+ * times do not grow with the model, and -Xmx only has to cover the rest of
+ * the program. Direct buffers count against -XX:MaxDirectMemorySize, mapped
+ * files only against the page cache.
+ * <p>
+ * A mapped file starts with a {@value #HEADER_BYTES}-byte header (magic, rows,
+ * cols) followed by the rows as little-endian floats, so the trained matrix is
+ * persisted by {@link #flush()} without a separate write.
+ */
+public class OffHeapMatrix extends Matrix {
+
+    public static final int MAGIC = 0x6e32766d; // "n2vm"
+    public static final int HEADER_BYTES = 64;
+
+    private final FloatBuffer[] blocks;
+    private final MappedByteBuffer[] mapped;
+    private final int shift, mask;
+
+    private OffHeapMatrix(int rows, int cols, FileChannel channel) throws IOException {
+        super(rows, cols);
+        int rowsPerBlock = rowsPerBlock(cols);
+        shift = Integer.numberOfTrailingZeros(rowsPerBlock);
+        mask = rowsPerBlock - 1;
+        int numBlocks = (rows + rowsPerBlock - 1) / rowsPerBlock;
+        blocks = new FloatBuffer[numBlocks];
+        mapped = channel == null ? null : new MappedByteBuffer[numBlocks];
+        for (int b = 0; b < numBlocks; b++) {
+            int blockRows = Math.min(rowsPerBlock, rows - (b << shift));
+            int bytes = blockRows * cols * Float.BYTES;
+            ByteBuffer buffer;
+            if (channel == null) {
+                buffer = ByteBuffer.allocateDirect(bytes);
+            } else {
+                long position = HEADER_BYTES + ((long) b << shift) * cols * Float.BYTES;
+                mapped[b] = channel.map(FileChannel.MapMode.READ_WRITE, position, bytes);
+                buffer = mapped[b];
+            }
+            blocks[b] = buffer.order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+        }
+    }
+
+    /**
+     * allocate a zero-filled matrix in direct memory
+     * @param rows number of rows
+     * @param cols number of columns
+     * @return the matrix
+     */
+    public static OffHeapMatrix allocate(int rows, int cols) {
+        try {
+            return new OffHeapMatrix(rows, cols, null);
+        } catch (IOException e) {
+            throw new AssertionError(e); // no file involved
+        }
+    }
+
+    /**
+     * create a matrix backed by a memory-mapped file, replacing the file
+     * @param file the backing file
+     * @param rows number of rows
+     * @param cols number of columns
+     * @return the matrix
+     * @throws IOException file cannot be created or mapped
+     */
+    public static OffHeapMatrix map(File file, int rows, int cols) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(0);
+            raf.setLength(HEADER_BYTES + (long) rows * cols * Float.BYTES);
+            FileChannel channel = raf.getChannel();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(rows).putInt(cols);
+            header.clear();
+            channel.write(header, 0);
+            // the mappings stay valid after the channel is closed
+            return new OffHeapMatrix(rows, cols, channel);
+        }
+    }
+
+    /**
+     * write the mapped pages back to the file, a no-op for direct buffers
+     */
+    public void flush() {
+        if (mapped == null) return;
+        for (MappedByteBuffer buffer : mapped) {
+            buffer.force();
+        }
+    }
+
+    public boolean isMapped() {
+        return mapped != null;
+    }
+
+    @Override
+    public double dot(int row, Matrix other, int otherRow) {
+        FloatBuffer a = blocks[row >>> shift];
+        int ai = (row & mask) * cols;
+        float f = 0;
+        if (other instanceof OffHeapMatrix) {
+            OffHeapMatrix that = (OffHeapMatrix) other;
+            FloatBuffer b = that.blocks[otherRow >>> that.shift];
+            int bi = (otherRow & that.mask) * cols;
+            for (int j = 0; j < cols; j++) f += a.get(ai + j) * b.get(bi + j);
+        } else {
+            // the other side may hold doubles, keep their precision
+            double d = 0;
+            for (int j = 0; j < cols; j++) d += a.get(ai + j) * other.get(otherRow, j);
+            return d;
+        }
+        return f;
+    }
+
+    @Override
+    public void add(int row, double scale, Matrix other, int otherRow) {
+        FloatBuffer a = blocks[row >>> shift];
+        int ai = (row & mask) * cols;
+        float s = (float) scale;
+        if (other instanceof OffHeapMatrix) {
+            OffHeapMatrix that = (OffHeapMatrix) other;
+            FloatBuffer b = that.blocks[otherRow >>> that.shift];
+            int bi = (otherRow & that.mask) * cols;
+            for (int j = 0; j < cols; j++) a.put(ai + j, a.get(ai + j) + s * b.get(bi + j));
+        } else {
+            for (int j = 0; j < cols; j++) a.put(ai + j, a.get(ai + j) + s * (float) other.get(otherRow, j));
+        }
+    }
+
+    @Override
+    public void getRow(int row, float[] dst, int offset) {
+        FloatBuffer a = blocks[row >>> shift];
+        int ai = (row & mask) * cols;
+        for (int j = 0; j < cols; j++) dst[offset + j] = a.get(ai + j);
+    }
+
+    @Override
+    public void addRow(int row, float[] src, int offset) {
+        FloatBuffer a = blocks[row >>> shift];
+        int ai = (row & mask) * cols;
+        for (int j = 0; j < cols; j++) a.put(ai + j, a.get(ai + j) + src[offset + j]);
+    }
+
+    @Override
+    public void clear(int row) {
+        FloatBuffer a = blocks[row >>> shift];
+        int ai = (row & mask) * cols;
+        for (int j = 0; j < cols; j++) a.put(ai + j, 0);
+    }
+
+    @Override
+    public double get(int row, int col) {
+        return blocks[row >>> shift].get((row & mask) * cols + col);
+    }
+
+    @Override
+    public void set(int row, int col, double value) {
+        blocks[row >>> shift].put((row & mask) * cols + col, (float) value);
+    }
+
+    @Override
+    public int bytesPerValue() {
+        return Float.BYTES;
+    }
+}
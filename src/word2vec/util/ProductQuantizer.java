@@ -0,0 +1,233 @@
+package word2vec.util;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Product quantization of unit vectors: the vector is split into subspaces
+ * of dim / subspaces values, and each part is replaced by the index of its
+ * nearest centroid in a 256-entry codebook of that subspace. The norm is kept
+ * as the scale, so a vector takes one byte per subspace plus the scale.
+ * <p>
+ * A query is scored by building a subspaces x 256 table of its partial dot
+ * products with every centroid; the score of a vector is then the sum of one
+ * table entry per code byte.
+ */
+public class ProductQuantizer extends Quantizer {
+
+    /* centroids per subspace, so that a code is one byte */
+    public static final int CENTROIDS = 256;
+    /* Lloyd iterations when training the codebooks */
+    private static final int ITERATIONS = 12;
+
+    private final int subspaces, subDim;
+    // centroids of every subspace, row-major CENTROIDS x subDim
+    private final float[][] codebooks;
+
+    private ProductQuantizer(int dim, int subspaces, float[][] codebooks) {
+        super(dim);
+        if (subspaces <= 0 || dim % subspaces != 0)
+            throw new IllegalArgumentException("Number of subspaces must divide the vector size " + dim);
+        this.subspaces = subspaces;
+        this.subDim = dim / subspaces;
+        this.codebooks = codebooks;
+    }
+
+    /**
+     * learn the codebooks by k-means over a sample of the vectors to encode
+     * @param sample rows of dim values, row-major; rows are normalized before clustering
+     * @param dim the vector size
+     * @param subspaces the number of subspaces, a divisor of dim
+     * @param seed seed of the initial centroids
+     * @return the trained quantizer
+     */
+    public static ProductQuantizer train(float[] sample, int dim, int subspaces, long seed) {
+        if (subspaces <= 0 || dim % subspaces != 0)
+            throw new IllegalArgumentException("Number of subspaces must divide the vector size " + dim);
+        int n = sample.length / dim;
+        if (n == 0)
+            throw new IllegalArgumentException("Cannot train codebooks without vectors.");
+        float[] unit = sample.clone();
+        for (int i = 0; i < n; i++) normalize(unit, i * dim, dim);
+
+        int subDim = dim / subspaces;
+        float[][] codebooks = new float[subspaces][];
+        Random random = new Random(seed);
+        float[] part = new float[n * subDim];
+        for (int s = 0; s < subspaces; s++) {
+            for (int i = 0; i < n; i++) {
+                System.arraycopy(unit, i * dim + s * subDim, part, i * subDim, subDim);
+            }
+            codebooks[s] = kMeans(part, n, subDim, random);
+        }
+        return new ProductQuantizer(dim, subspaces, codebooks);
+    }
+
+    static ProductQuantizer readCodebooks(int dim, DataInputStream in) throws IOException {
+        int subspaces = in.readInt();
+        if (subspaces <= 0 || dim % subspaces != 0)
+            throw new IOException("Invalid number of subspaces " + subspaces + " for vector size " + dim);
+        float[][] codebooks = new float[subspaces][CENTROIDS * (dim / subspaces)];
+        for (float[] codebook : codebooks) {
+            for (int k = 0; k < codebook.length; k++) codebook[k] = in.readFloat();
+        }
+        return new ProductQuantizer(dim, subspaces, codebooks);
+    }
+
+    @Override
+    public void write(DataOutputStream out) throws IOException {
+        super.write(out);
+        out.writeInt(subspaces);
+        for (float[] codebook : codebooks) {
+            for (float value : codebook) out.writeFloat(value);
+        }
+    }
+
+    public int subspaces() {
+        return subspaces;
+    }
+
+    @Override
+    public int codeBytes() {
+        return subspaces;
+    }
+
+    @Override
+    public float encode(float[] vector, byte[] codes, int offset) {
+        float norm = 0;
+        for (int j = 0; j < dim; j++) norm += vector[j] * vector[j];
+        norm = (float) Math.sqrt(norm);
+        float inverse = norm == 0 ? 0 : 1 / norm;
+        for (int s = 0; s < subspaces; s++) {
+            // nearest centroid by the largest dot - |c|^2 / 2, the vector being unit length
+            float[] codebook = codebooks[s];
+            int best = 0;
+            float bestScore = Float.NEGATIVE_INFINITY;
+            for (int c = 0; c < CENTROIDS; c++) {
+                float dot = 0, square = 0;
+                for (int j = 0; j < subDim; j++) {
+                    float x = codebook[c * subDim + j];
+                    dot += x * vector[s * subDim + j] * inverse;
+                    square += x * x;
+                }
+                float score = dot - square / 2;
+                if (score > bestScore) {
+                    bestScore = score;
+                    best = c;
+                }
+            }
+            codes[offset + s] = (byte) best;
+        }
+        return norm;
+    }
+
+    @Override
+    public void decode(byte[] codes, int offset, float scale, float[] dst) {
+        for (int s = 0; s < subspaces; s++) {
+            int c = codes[offset + s] & 0xff;
+            for (int j = 0; j < subDim; j++) dst[s * subDim + j] = codebooks[s][c * subDim + j] * scale;
+        }
+    }
+
+    @Override
+    public Query query(float[] vector) {
+        float[] table = new float[subspaces * CENTROIDS];
+        for (int s = 0; s < subspaces; s++) {
+            float[] codebook = codebooks[s];
+            for (int c = 0; c < CENTROIDS; c++) {
+                float dot = 0;
+                for (int j = 0; j < subDim; j++) dot += vector[s * subDim + j] * codebook[c * subDim + j];
+                table[s * CENTROIDS + c] = dot;
+            }
+        }
+        return (codes, offset, count, dst, dstOffset) -> {
+            for (int k = 0; k < count; k++) {
+                int base = offset + k * subspaces;
+                float s0 = 0, s1 = 0;
+                int s = 0;
+                for (; s + 2 <= subspaces; s += 2) {
+                    s0 += table[s * CENTROIDS + (codes[base + s] & 0xff)];
+                    s1 += table[(s + 1) * CENTROIDS + (codes[base + s + 1] & 0xff)];
+                }
+                if (s < subspaces) s0 += table[s * CENTROIDS + (codes[base + s] & 0xff)];
+                dst[dstOffset + k] = s0 + s1;
+            }
+        };
+    }
+
+    @Override
+    int kind() {
+        return PRODUCT;
+    }
+
+    /**
+     * @return CENTROIDS centroids of the n points, row-major
+     */
+    private static float[] kMeans(float[] points, int n, int d, Random random) {
+        float[] centroids = new float[CENTROIDS * d];
+        int k = Math.min(CENTROIDS, n);
+        // start from k distinct points; with fewer points than centroids the rest repeat them
+        int[] order = new int[n];
+        for (int i = 0; i < n; i++) order[i] = i;
+        for (int i = 0; i < k; i++) {
+            int j = i + random.nextInt(n - i);
+            int tmp = order[i];
+            order[i] = order[j];
+            order[j] = tmp;
+        }
+        for (int c = 0; c < CENTROIDS; c++) System.arraycopy(points, order[c % k] * d, centroids, c * d, d);
+        if (k < CENTROIDS) return centroids;
+
+        int[] assignment = new int[n];
+        int[] sizes = new int[CENTROIDS];
+        float[] halfSquares = new float[CENTROIDS];
+        for (int iteration = 0; iteration < ITERATIONS; iteration++) {
+            for (int c = 0; c < CENTROIDS; c++) {
+                float square = 0;
+                for (int j = 0; j < d; j++) square += centroids[c * d + j] * centroids[c * d + j];
+                halfSquares[c] = square / 2;
+            }
+            for (int i = 0; i < n; i++) {
+                int best = 0;
+                float bestScore = Float.NEGATIVE_INFINITY;
+                for (int c = 0; c < CENTROIDS; c++) {
+                    float dot = 0;
+                    for (int j = 0; j < d; j++) dot += points[i * d + j] * centroids[c * d + j];
+                    float score = dot - halfSquares[c];
+                    if (score > bestScore) {
+                        bestScore = score;
+                        best = c;
+                    }
+                }
+                assignment[i] = best;
+            }
+            Arrays.fill(centroids, 0);
+            Arrays.fill(sizes, 0);
+            for (int i = 0; i < n; i++) {
+                int c = assignment[i];
+                sizes[c]++;
+                for (int j = 0; j < d; j++) centroids[c * d + j] += points[i * d + j];
+            }
+            for (int c = 0; c < CENTROIDS; c++) {
+                if (sizes[c] == 0) {
+                    // an empty cluster restarts at a random point
+                    System.arraycopy(points, random.nextInt(n) * d, centroids, c * d, d);
+                    continue;
+                }
+                for (int j = 0; j < d; j++) centroids[c * d + j] /= sizes[c];
+            }
+        }
+        return centroids;
+    }
+
+    private static void normalize(float[] rows, int offset, int d) {
+        float norm = 0;
+        for (int j = 0; j < d; j++) norm += rows[offset + j] * rows[offset + j];
+        if (norm == 0) return;
+        float inverse = (float) (1 / Math.sqrt(norm));
+        for (int j = 0; j < d; j++) rows[offset + j] *= inverse;
+    }
+}
@@ -0,0 +1,105 @@
+package word2vec.util;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * A lossy encoding of fixed-size float vectors into a few bytes each.
+ * <p>
+ * Every vector is stored as its codes plus one float scale, so that the dot
+ * product of a query with a vector is the scale times a dot product computed
+ * on the codes. A query is prepared once, after which every stored vector is
+ * scored directly on its codes without being decoded.
+ */
+public abstract class Quantizer {
+
+    /* kinds as written in the file header */
+    static final int INT8 = 1, PRODUCT = 2;
+
+    protected final int dim;
+
+    protected Quantizer(int dim) {
+        if (dim <= 0)
+            throw new IllegalArgumentException("Invalid vector size " + dim);
+        this.dim = dim;
+    }
+
+    public int dim() {
+        return dim;
+    }
+
+    /**
+     * @return the number of code bytes of one vector
+     */
+    public abstract int codeBytes();
+
+    /**
+     * @param vector the vector to encode, dim values
+     * @param codes receives codeBytes() codes at offset
+     * @return the scale of the vector
+     */
+    public abstract float encode(float[] vector, byte[] codes, int offset);
+
+    /**
+     * @param dst receives the approximate vector, dim values
+     */
+    public abstract void decode(byte[] codes, int offset, float scale, float[] dst);
+
+    /**
+     * @param vector a vector of dim values
+     * @return the query that scores encoded vectors against this vector
+     */
+    public abstract Query query(float[] vector);
+
+    /**
+     * @return the dot product of two encoded vectors, before scaling by both scales
+     */
+    public float dot(byte[] codes, int offset, byte[] otherCodes, int otherOffset) {
+        float[] vector = new float[dim];
+        decode(codes, offset, 1, vector);
+        float[] dot = new float[1];
+        query(vector).dots(otherCodes, otherOffset, 1, dot, 0);
+        return dot[0];
+    }
+
+    /**
+     * write the kind and parameters, so that read can rebuild this quantizer
+     */
+    public void write(DataOutputStream out) throws IOException {
+        out.writeInt(kind());
+        out.writeInt(dim);
+    }
+
+    abstract int kind();
+
+    /**
+     * @return the quantizer written by write
+     * @throws IOException the stream does not hold a known quantizer
+     */
+    public static Quantizer read(DataInputStream in) throws IOException {
+        int kind = in.readInt();
+        int dim = in.readInt();
+        switch (kind) {
+            case INT8:
+                return new ScalarQuantizer(dim);
+            case PRODUCT:
+                return ProductQuantizer.readCodebooks(dim, in);
+            default:
+                throw new IOException("Unknown quantizer kind " + kind);
+        }
+    }
+
+    /**
+     * A vector prepared once, e.g. as a lookup table, to be scored against many encoded vectors.
+     */
+    public interface Query {
+
+        /**
+         * dst[dstOffset + k] = dot of the query with vector k of codes, before scaling by its scale,
+         * for k in 0..count-1
+         * @param codes consecutive encoded vectors starting at offset
+         */
+        void dots(byte[] codes, int offset, int count, float[] dst, int dstOffset);
+    }
+}
@@ -0,0 +1,62 @@
+package word2vec.util;
+
+/**
+ * Symmetric int8 quantization with one scale per vector: every value is
+ * rounded to a multiple of max|v| / 127. A vector takes dim bytes instead of
+ * 4 * dim, and queries are quantized the same way, so that scores are integer
+ * dot products over bytes.
+ */
+public class ScalarQuantizer extends Quantizer {
+
+    public ScalarQuantizer(int dim) {
+        super(dim);
+    }
+
+    @Override
+    public int codeBytes() {
+        return dim;
+    }
+
+    @Override
+    public float encode(float[] vector, byte[] codes, int offset) {
+        float max = 0;
+        for (int j = 0; j < dim; j++) max = Math.max(max, Math.abs(vector[j]));
+        if (max == 0) {
+            for (int j = 0; j < dim; j++) codes[offset + j] = 0;
+            return 0;
+        }
+        float scale = max / 127;
+        for (int j = 0; j < dim; j++) codes[offset + j] = (byte) Math.round(vector[j] / scale);
+        return scale;
+    }
+
+    @Override
+    public void decode(byte[] codes, int offset, float scale, float[] dst) {
+        for (int j = 0; j < dim; j++) dst[j] = codes[offset + j] * scale;
+    }
+
+    @Override
+    public Query query(float[] vector) {
+        // the query is quantized as well, so that scoring is a dot product of bytes in int arithmetic
+        byte[] codes = new byte[dim];
+        float scale = encode(vector, codes, 0);
+        return (data, offset, count, dst, dstOffset) -> {
+            for (int k = 0; k < count; k++) {
+                dst[dstOffset + k] = scale * dot(codes, 0, data, offset + k * dim);
+            }
+        };
+    }
+
+    @Override
+    public float dot(byte[] codes, int offset, byte[] otherCodes, int otherOffset) {
+        // exact, 127^2 * dim fits an int for any practical dim
+        int sum = 0;
+        for (int j = 0; j < dim; j++) sum += codes[offset + j] * otherCodes[otherOffset + j];
+        return sum;
+    }
+
+    @Override
+    int kind() {
+        return INT8;
+    }
+}